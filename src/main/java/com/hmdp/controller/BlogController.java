@@ -59,6 +59,13 @@ public class BlogController {
         return Result.ok(records);
     }
 
+    //按id滚动查询，lastId传上一页返回的minTime，第一页不传
+    @GetMapping("/of/me/scroll")
+    public Result queryMyBlogScroll(@RequestParam(value = "lastId", required = false) Long lastId) {
+        UserDTO user = UserHolder.getUser();
+        return blogService.queryBlogOfUserScroll(user.getId(), lastId);
+    }
+
     @GetMapping("/hot")
     public Result queryHotBlog(@RequestParam(value = "current", defaultValue = "1") Integer current) {
         return blogService.queryHotBlog(current);
@@ -87,4 +94,11 @@ public class BlogController {
         List<Blog> records = page.getRecords();
         return Result.ok(records);
     }
+
+    @GetMapping("/of/user/scroll")
+    public Result queryBlogByUserIdScroll(
+            @RequestParam("id") Long id,
+            @RequestParam(value = "lastId", required = false) Long lastId) {
+        return blogService.queryBlogOfUserScroll(id, lastId);
+    }
 }
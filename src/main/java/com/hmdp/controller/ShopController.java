@@ -1,12 +1,13 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.SystemConstants;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoLoader;
+import com.hmdp.utils.ShopNameIndex;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -26,6 +27,18 @@ public class ShopController {
     @Resource
     public IShopService shopService;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+
+    @Resource
+    private ShopGeoLoader shopGeoLoader;
+
+    @Resource
+    private ShopNameIndex shopNameIndex;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
@@ -46,6 +59,14 @@ public class ShopController {
     public Result saveShop(@RequestBody Shop shop) {
         // 写入数据库
         shopService.save(shop);
+        // 写入布隆过滤器
+        idBloomFilter.add(IdBloomFilter.TB_SHOP, shop.getId());
+        // 写入redis坐标 shop:geo:{typeId}
+        shopGeoLoader.onShopChanged(shop.getId(), null);
+        // 写入本地坐标索引，并通知其他节点
+        shopGeoIndex.onShopChanged(shop.getId());
+        // 写入本地名称索引，并通知其他节点
+        shopNameIndex.onShopChanged(shop.getId());
         // 返回店铺id
         return Result.ok(shop.getId());
     }
@@ -77,6 +98,20 @@ public class ShopController {
        return shopService.queryShopByType(typeId,current,x,y);
     }
 
+    /**
+     * 根据商铺类型滚动查询商铺信息，不查总数，翻到后面也不会变慢
+     * @param typeId 商铺类型
+     * @param lastId 上一页返回的minTime，第一页不传
+     * @return 商铺列表
+     */
+    @GetMapping("/of/type/scroll")
+    public Result queryShopByTypeScroll(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return shopService.queryShopByTypeScroll(typeId, lastId);
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
@@ -88,11 +123,20 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 根据商铺名称关键字滚动查询商铺信息，不查总数
+     * @param name 商铺名称关键字
+     * @param lastId 上一页返回的minTime，第一页不传
+     * @return 商铺列表
+     */
+    @GetMapping("/of/name/scroll")
+    public Result queryShopByNameScroll(
+            @RequestParam(value = "name", required = false) String name,
+            @RequestParam(value = "lastId", required = false) Long lastId
+    ) {
+        return shopService.queryShopByNameScroll(name, lastId);
     }
 }
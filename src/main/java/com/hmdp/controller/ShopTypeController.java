@@ -1,8 +1,8 @@
 package com.hmdp.controller;
 
 
-import com.hmdp.dto.Result;
 import com.hmdp.service.IShopTypeService;
+import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -23,8 +23,9 @@ public class ShopTypeController {
     @Resource
     private IShopTypeService typeService;
 
-    @GetMapping("list")
-    public Result queryTypeList() {
-        return  typeService.queryList() ;
+    //直接写出序列化好的json，不再每次序列化
+    @GetMapping(value = "list", produces = MediaType.APPLICATION_JSON_VALUE)
+    public byte[] queryTypeList() {
+        return  typeService.queryListJson() ;
     }
 }
@@ -9,6 +9,9 @@ import com.hmdp.entity.User;
 import com.hmdp.entity.UserInfo;
 import com.hmdp.service.IUserInfoService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SignedTokens;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
@@ -35,6 +38,15 @@ public class UserController {
     @Resource
     private IUserInfoService userInfoService;
 
+    @Resource
+    private IdBloomFilter idBloomFilter;
+
+    @Resource
+    private LoginSessionCache loginSessionCache;
+
+    @Resource
+    private SignedTokens signedTokens;
+
     /**
      * 发送手机验证码
      */
@@ -60,9 +72,14 @@ public class UserController {
      * @return 无
      */
     @PostMapping("/logout")
-    public Result logout(){
-        // TODO 实现登出功能
-        return Result.fail("功能未完成");
+    public Result logout(@RequestHeader("authorization") String token){
+        //签名token写入黑名单；redis会话删除token，并通知所有节点清除本地登录缓存
+        if (signedTokens.isEnabled()) {
+            signedTokens.revoke(token);
+        } else {
+            loginSessionCache.invalidate(token);
+        }
+        return Result.ok();
     }
 
     @GetMapping("/me")
@@ -89,6 +106,10 @@ public class UserController {
     // UserController 根据id查询用户
     @GetMapping("/{id}")
     public Result queryUserById(@PathVariable("id") Long userId){
+        // 布隆过滤器判断不存在
+        if (!idBloomFilter.mightContain(IdBloomFilter.TB_USER, userId)) {
+            return Result.ok();
+        }
         // 查询详情
         User user = userService.getById(userId);
         if (user == null) {
@@ -4,6 +4,7 @@ package com.hmdp.controller;
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -29,4 +30,10 @@ public class VoucherOrderController {
     {
         return voucherOrderService.seckillVoucher(voucherId);
     }
+
+    //订单消费者的吞吐量和积压情况
+    @GetMapping("stats")
+    public Result queryConsumerStats() {
+        return Result.ok(voucherOrderService.queryConsumerStats());
+    }
 }
@@ -0,0 +1,29 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Data
+public class SeckillOrderStats {
+    //消费者数量
+    private Integer consumers;
+    //每批最多读取的订单数
+    private Integer batchSize;
+    //已处理的订单数
+    private Long processedOrders;
+    //已处理的批次数
+    private Long processedBatches;
+    //失败的批次数
+    private Long failedBatches;
+    //转入死信队列的订单数
+    private Long deadLetters;
+    //最近一个统计周期每秒处理的订单数
+    private Double ordersPerSecond;
+    //已读取未确认的订单数
+    private Long pending;
+    //最新消息与最后投递消息的时间差(毫秒)
+    private Long lagMillis;
+}
@@ -2,6 +2,10 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Blog;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.time.LocalDateTime;
+import java.util.Map;
 
 /**
  * <p>
@@ -13,4 +17,11 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface BlogMapper extends BaseMapper<Blog> {
 
+    //记录已经写入的点赞增量批次，返回0说明这个批次写过了
+    int insertLikeFlush(@Param("batchId") long batchId);
+
+    //批量更新点赞数，blogId -> 增量
+    int incrLikedBatch(@Param("deltas") Map<Long, Long> deltas);
+
+    int deleteLikeFlushBefore(@Param("time") LocalDateTime time);
 }
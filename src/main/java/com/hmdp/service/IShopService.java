@@ -29,4 +29,28 @@ public interface IShopService extends IService<Shop> {
 
 
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    /**
+     * 根据商铺类型滚动查询，按id翻页，不查总数
+     * @param typeId 商铺类型
+     * @param lastId 上一页最后一个商铺的id，第一页不传
+     * @return ScrollResult，minTime是下一页的lastId
+     */
+    Result queryShopByTypeScroll(Integer typeId, Long lastId);
+
+    /**
+     * 根据商铺名称关键字分页查询，按相关度排序
+     * @param name 商铺名称关键字
+     * @param current 页码
+     * @return 商铺列表
+     */
+    Result queryShopByName(String name, Integer current);
+
+    /**
+     * 根据商铺名称关键字滚动查询，按id翻页，不查总数
+     * @param name 商铺名称关键字
+     * @param lastId 上一页最后一个商铺的id，第一页不传
+     * @return ScrollResult，minTime是下一页的lastId
+     */
+    Result queryShopByNameScroll(String name, Long lastId);
 }
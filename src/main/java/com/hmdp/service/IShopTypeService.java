@@ -16,4 +16,10 @@ public interface IShopTypeService extends IService<ShopType> {
 
     //缓存列表
     Result queryList();
+
+    //缓存列表序列化好的json，返回的数组不要修改
+    byte[] queryListJson();
+
+    //修改商铺类型后调用，通知所有节点重新加载
+    void typesChanged();
 }
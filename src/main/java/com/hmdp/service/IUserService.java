@@ -3,9 +3,12 @@ package com.hmdp.service;
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.LoginFormDTO;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Map;
 
 /**
  * <p>
@@ -28,4 +31,11 @@ public interface IUserService extends IService<User> {
     Result sign();
 
     Result signCount();
+
+    /**
+     * 批量查询用户，走缓存，未命中的一次性查询数据库
+     * @param ids 用户id
+     * @return 用户id -> 用户信息，按照传入的顺序，不存在的用户不返回
+     */
+    Map<Long, UserDTO> queryUserDTOByIds(Collection<Long> ids);
 }
@@ -1,9 +1,12 @@
 package com.hmdp.service;
 
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillOrderStats;
 import com.hmdp.entity.VoucherOrder;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -19,4 +22,10 @@ public interface IVoucherOrderService extends IService<VoucherOrder> {
 
     //生成订单
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    //批量生成订单，一个事务里扣减库存并插入
+    void createVoucherOrderBatch(List<VoucherOrder> orders);
+
+    //订单消费者的吞吐量和积压情况
+    SeckillOrderStats queryConsumerStats();
 }
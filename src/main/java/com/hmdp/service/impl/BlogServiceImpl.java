@@ -2,35 +2,45 @@ package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
 import com.hmdp.dto.ScrollResult;
 import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.Blog;
-import com.hmdp.entity.Follow;
-import com.hmdp.entity.User;
 import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
-import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
-import com.hmdp.utils.RedisConstants;
+import com.hmdp.utils.FeedDispatcher;
+import com.hmdp.utils.FeedReader;
+import com.hmdp.utils.HotBlogRanking;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
 import static com.hmdp.utils.RedisConstants.BLOG_LIKED_KEY;
-import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKE_DELTA_KEY;
 
 /**
  * <p>
@@ -43,41 +53,69 @@ import static com.hmdp.utils.RedisConstants.FEED_KEY;
 @Service
 public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IBlogService {
 
+    //关注的笔记每页条数
+    private static final int FOLLOW_PAGE_SIZE = 2;
+
+    //点赞或取消点赞
+    private static final DefaultRedisScript<Long> LIKE_SCRIPT;
+    static {
+        LIKE_SCRIPT = new DefaultRedisScript<>();
+        LIKE_SCRIPT.setLocation(new ClassPathResource("LikeBlog.lua"));
+        LIKE_SCRIPT.setResultType(Long.class);
+    }
+
     @Resource
     private IUserService userService;
 
     @Autowired
-    private IFollowService followService;
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Autowired
+    private IdBloomFilter idBloomFilter;
 
     @Autowired
-    private StringRedisTemplate stringRedisTemplate;
+    private FeedDispatcher feedDispatcher;
+
+    @Autowired
+    private FeedReader feedReader;
+
+    @Autowired
+    private HotBlogRanking hotBlogRanking;
 
     @Override
     public Result queryHotBlog(Integer current) {
-        // 根据用户查询
-        Page<Blog> page = query()
-                .orderByDesc("liked")
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 获取当前页数据
-        List<Blog> records = page.getRecords();
-        // 查询用户
-        records.forEach(blog ->{
-           queryBlogUser(blog);
-           isBlogLiked(blog);
-        });
+        // 从热门排行查询当前页，和用户无关的部分有本地缓存
+        List<Blog> page = hotBlogRanking.page(current, SystemConstants.MAX_PAGE_SIZE, this::listHotBlogs);
+        // 复制一份再填是否被赞，缓存里的对象是共享的
+        List<Blog> records = new ArrayList<>(page.size());
+        for (Blog blog : page) {
+            records.add(BeanUtil.copyProperties(blog, Blog.class));
+        }
+        queryBlogLiked(records);
         return Result.ok(records);
     }
 
+    //按照排行的顺序查询笔记和作者
+    private List<Blog> listHotBlogs(List<Long> ids) {
+        String idStr = StrUtil.join(",", ids);
+        List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
+        queryBlogUser(blogs);
+        return blogs;
+    }
+
     @Override
     public Result queryBlogById(Long id) {
+        //布隆过滤器判断不存在，直接返回
+        if (!idBloomFilter.mightContain(IdBloomFilter.TB_BLOG, id)) {
+            return Result.fail("笔记不存在");
+        }
        //1.查询博客
         Blog blog = getById(id);
         if (blog == null) {
             return Result.fail("笔记不存在");
         }
         //2.查询用户
-       queryBlogUser(blog);
-       isBlogLiked(blog);
+       hydrateBlogs(Collections.singletonList(blog));
         return Result.ok(blog);
     }
 
@@ -85,29 +123,28 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result likeBlog(Long id) {
         //1.获取登录用户
         Long userId = UserHolder.getUser().getId();
-        //2.判断当前登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + id;
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        if (score == null){
-        //3.如果未点赞，可以点赞
-        //3.1 数据库点赞数+1
-            boolean isSuccess = update().setSql("liked = liked + 1").eq("id", id).update();
-            //3.2 保存用户到Redis的set集合
-            if (isSuccess){
-                stringRedisTemplate.opsForZSet().add(key,userId.toString(),System.currentTimeMillis());
-            }
-        }else {
-        //4.如果已点赞，取消点赞
-        //4.1 数据库点赞数-1
-            boolean isSuccess = update().setSql("liked = liked -1").eq("id", id).update();
-            //4.2 把用户从Redis的set集合移除
-            if (isSuccess){
-                stringRedisTemplate.opsForZSet().remove(key,userId.toString());
-            }
-        }
+        //2.在redis里原子地点赞或取消点赞，并记录点赞数增量，数据库由BlogLikeFlusher批量更新
+        stringRedisTemplate.execute(
+                LIKE_SCRIPT,
+                Arrays.asList(BLOG_LIKED_KEY + id, BLOG_LIKE_DELTA_KEY, BLOG_HOT_KEY),
+                userId.toString(), String.valueOf(System.currentTimeMillis()), id.toString()
+        );
         return Result.ok();
     }
 
+    //同一批次只写一次：先插入批次号，插入成功才更新点赞数，两步在一个事务里
+    @Override
+    @Transactional
+    public boolean applyLikeDeltas(long batchId, Map<Long, Long> deltas) {
+        if (getBaseMapper().insertLikeFlush(batchId) == 0) {
+            return false;
+        }
+        if (!deltas.isEmpty()) {
+            getBaseMapper().incrLikedBatch(deltas);
+        }
+        return true;
+    }
+
     //查询点赞排行榜
     @Override
     public Result queryBlogLikes(Long id) {
@@ -120,13 +157,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         }
         //有,解析用户id
         List<Long> ids = top5.stream().map(Long::valueOf).collect(Collectors.toList());
-        String idStr = StrUtil.join(",", ids);
-        //3.根据用户id查询数据库 in (5, 1) order by field(id, 5, 1)
-        List<UserDTO> userDTOS = userService.query()
-                .in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list()
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        //3.根据用户id批量查询缓存，未命中的一次性查询数据库，结果按照点赞顺序返回
+        List<UserDTO> userDTOS = new ArrayList<>(userService.queryUserDTOByIds(ids).values());
         //4.返回
         return Result.ok(userDTOS);
     }
@@ -142,16 +174,10 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess){
             return Result.fail("新增笔记失败");
         }
-        //3.查询笔记作者的所有粉丝 select * from tb_follow where follow_user_id = ?
-        List<Follow> follows = followService.query().eq("follow_user_id", user.getId()).list();
-        //4.推送笔记id给所有的粉丝
-        for (Follow follow:follows){
-            //4.1获取粉丝
-            Long userId = follow.getUserId();
-            //4.2推送
-            String key = RedisConstants.FEED_KEY + userId;
-            stringRedisTemplate.opsForZSet().add(key,blog.getId().toString(),System.currentTimeMillis());
-        }
+        idBloomFilter.add(IdBloomFilter.TB_BLOG, blog.getId());
+        hotBlogRanking.add(blog);
+        //3.推送笔记id给所有的粉丝，写入stream.feed后由后台分页推送
+        feedDispatcher.publish(blog);
         // 返回id
         return Result.ok(blog.getId());
     }
@@ -160,13 +186,17 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     public Result queryBlogOfFollow(Long max, Integer offset) {
         //1.获取当前用户
         Long userId = UserHolder.getUser().getId();
-        //2.查询收件箱 ZREVRANGEBYSCORE key Max Min LIMIT offset count
-        String key = FEED_KEY + userId;
-        Set<ZSetOperations.TypedTuple<String>> typedTuples =
-                stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(key, 0, max, offset, 2);
-        //3.非空判断
+        //2.裁剪时记录的边界，边界以下的笔记只从数据库查，否则会漏掉收件箱、发件箱里已经裁掉的笔记
+        ZSetOperations.TypedTuple<String> horizon = feedReader.horizon(userId);
+        //3.查询收件箱和关注的大V的发件箱 ZREVRANGEBYSCORE key Max horizon LIMIT offset count
+        List<ZSetOperations.TypedTuple<String>> typedTuples = feedReader.queryFeed(
+                userId, max, horizon == null ? 0 : horizon.getScore(), offset, FOLLOW_PAGE_SIZE);
+        //3.1 边界以上都看完了，从数据库拉取
         if (typedTuples == null ||typedTuples.isEmpty()){
-            return Result.ok();
+            if (horizon == null) {
+                return Result.ok();
+            }
+            return queryBlogOfFollowFromDb(userId, max, offset, horizon);
         }
         //4.解析数据
         List<Long> ids = new ArrayList<>(typedTuples.size());
@@ -189,12 +219,8 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         String idStr = StrUtil.join(",", ids);
         List<Blog> blogs = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
 
-        for (Blog blog : blogs) {
-            //5.1查询blog有关用户
-            queryBlogUser(blog);
-            //5.2查询blog是否被赞
-            isBlogLiked(blog);
-        }
+        //5.1批量查询blog有关用户和是否被赞
+        hydrateBlogs(blogs);
 
         //6.封装返回
         ScrollResult r = new ScrollResult();
@@ -205,29 +231,105 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         return Result.ok(r);
     }
 
+    //按id倒序滚动查询某个用户的笔记，WHERE user_id = ? AND id < lastId LIMIT n，不查总数
+    @Override
+    public Result queryBlogOfUserScroll(Long userId, Long lastId) {
+        List<Blog> blogs = query()
+                .eq("user_id", userId)
+                .lt(lastId != null, "id", lastId)
+                .orderByDesc("id")
+                .last("LIMIT " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        ScrollResult r = new ScrollResult();
+        r.setList(blogs);
+        r.setOffset(0);
+        //下一页从最后一条的id继续
+        r.setMinTime(blogs.isEmpty() ? lastId : blogs.get(blogs.size() - 1).getId());
+        return Result.ok(r);
+    }
+
+    //收件箱裁剪边界之前的笔记，按关注的作者从数据库查，分数用发布时间
+    //边界用边界上那篇笔记的id：id自增，比它小的就是比它早发布的；分数是毫秒，create_time只到秒，不能直接比较
+    private Result queryBlogOfFollowFromDb(Long userId, Long max, Integer offset, ZSetOperations.TypedTuple<String> horizon) {
+        //1.刚越过边界时从边界开始查，offset是redis里的，不能用；之后就是数据库自己的分页
+        boolean fromHorizon = max >= horizon.getScore();
+        int skip = fromHorizon ? 0 : offset;
+        LocalDateTime boundTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(max), ZoneId.systemDefault());
+        //2.关注的作者以 tb_follow 为准，redis里的 follow:userId 可能不完整
+        List<Blog> blogs = query()
+                .inSql("user_id", "SELECT follow_user_id FROM tb_follow WHERE user_id = " + userId)
+                .lt("id", Long.valueOf(horizon.getValue()))
+                .le(!fromHorizon, "create_time", boundTime)
+                .orderByDesc("create_time", "id")
+                .last("LIMIT " + skip + "," + FOLLOW_PAGE_SIZE)
+                .list();
+        if (blogs.isEmpty()) {
+            return Result.ok();
+        }
+        //3.和收件箱一样计算下一页的minTime和offset
+        long minTime = 0;
+        int os = 1;
+        for (Blog blog : blogs) {
+            long time = blog.getCreateTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            if (time == minTime) {
+                os++;
+            } else {
+                minTime = time;
+                os = 1;
+            }
+        }
+        os = !fromHorizon && minTime == max ? os + offset : os;
+        //4.查询blog有关用户和是否被赞
+        hydrateBlogs(blogs);
+        ScrollResult r = new ScrollResult();
+        r.setList(blogs);
+        r.setOffset(os);
+        r.setMinTime(minTime);
+        return Result.ok(r);
+    }
 
+    //填充作者信息和是否被赞，不管一页多少条，都是一次用户批量查询加一次管道
+    private void hydrateBlogs(List<Blog> blogs) {
+        if (blogs.isEmpty()) {
+            return;
+        }
+        queryBlogUser(blogs);
+        queryBlogLiked(blogs);
+    }
 
-    private void isBlogLiked(Blog blog) {
+    //管道批量查询当前用户是否点赞 ZSCORE blog:liked:id userId
+    private void queryBlogLiked(List<Blog> blogs) {
         // 1.获取登录用户
         UserDTO user = UserHolder.getUser();
         if (user == null) {
             // 用户未登录，无需查询是否点赞
             return;
         }
-        Long userId = user.getId();
-        // 2.判断当前登录用户是否已经点赞
-        String key = BLOG_LIKED_KEY + blog.getId();
-        Double score = stringRedisTemplate.opsForZSet().score(key, userId.toString());
-        blog.setIsLike(score != null);
+        String userId = user.getId().toString();
+        // 2.一次管道查询所有笔记
+        List<Object> scores = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Blog blog : blogs) {
+                conn.zScore(BLOG_LIKED_KEY + blog.getId(), userId);
+            }
+            return null;
+        });
+        for (int i = 0; i < blogs.size(); i++) {
+            blogs.get(i).setIsLike(scores.get(i) != null);
+        }
     }
 
-    private void queryBlogUser(Blog blog) {
-        Long userId = blog.getUserId();
-        User user = userService.getById(userId);
-        if (user == null){
-            return;
+    //批量查询blog作者，一次查询缓存和数据库
+    private void queryBlogUser(List<Blog> blogs) {
+        List<Long> userIds = blogs.stream().map(Blog::getUserId).collect(Collectors.toList());
+        Map<Long, UserDTO> users = userService.queryUserDTOByIds(userIds);
+        for (Blog blog : blogs) {
+            UserDTO user = users.get(blog.getUserId());
+            if (user == null){
+                continue;
+            }
+            blog.setName(user.getNickName());
+            blog.setIcon(user.getIcon());
         }
-        blog.setName(user.getNickName());
-        blog.setIcon(user.getIcon());
     }
 }
@@ -1,6 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
@@ -14,11 +13,14 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.FOLLOW_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -40,7 +42,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     @Override
     public Result follow(Long followUserId, boolean isFollow) {
         Long userId = UserHolder.getUser().getId();
-        String key = "follow:"+userId;
+        String key = FOLLOW_KEY + userId;
         if (isFollow){
            //关注
             Follow follow = new Follow();
@@ -76,8 +78,8 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
     public Result followCommons(Long followUserId) {
         //获取当前用户的
         Long userId = UserHolder.getUser().getId();
-        String key = "follow:"+userId;
-        String key2="follow:"+followUserId;
+        String key = FOLLOW_KEY + userId;
+        String key2 = FOLLOW_KEY + followUserId;
         //1.求交集判断
         Set<String> intersect = stringRedisTemplate.opsForSet().intersect(key, key2);
         if (intersect == null||intersect.isEmpty()){
@@ -87,10 +89,7 @@ public class FollowServiceImpl extends ServiceImpl<FollowMapper, Follow> impleme
         //2.把set解析为Long类型的集合
         List<Long> ids = intersect.stream().map(Long::valueOf).collect(Collectors.toList());
         //3.查询用户
-        List<UserDTO> userDTOS = userService.listByIds(ids)
-                .stream()
-                .map(user -> BeanUtil.copyProperties(user, UserDTO.class))
-                .collect(Collectors.toList());
+        List<UserDTO> userDTOS = new ArrayList<>(userService.queryUserDTOByIds(ids).values());
         return Result.ok(userDTOS);
     }
 }
@@ -7,19 +7,20 @@ import cn.hutool.json.JSONUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ScrollResult;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.NearbyShopCache;
 import com.hmdp.utils.RedisData;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoLoader;
+import com.hmdp.utils.ShopNameIndex;
 import com.hmdp.utils.SystemConstants;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.geo.Distance;
-import org.springframework.data.geo.GeoResult;
-import org.springframework.data.geo.GeoResults;
-import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -51,6 +52,24 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     @Autowired
     private CacheClient cacheClient;
 
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+
+    @Autowired
+    private NearbyShopCache nearbyShopCache;
+
+    @Autowired
+    private ShopGeoIndex shopGeoIndex;
+
+    @Autowired
+    private ShopGeoLoader shopGeoLoader;
+
+    @Autowired
+    private ShopNameIndex shopNameIndex;
+
+    //附近商铺的查询半径(米)
+    private static final double NEARBY_RADIUS = 5000;
+
     /**
      * 根据id查询商铺信息
      * @param id 商铺id
@@ -58,6 +77,10 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
      */
     @Override
     public Object queryGetById(Long id) {
+        //布隆过滤器判断不存在，直接返回，不再查询redis和数据库
+        if (!idBloomFilter.mightContain(IdBloomFilter.TB_SHOP, id)) {
+            return Result.fail("店铺不存在");
+        }
         //解决缓存穿透
       //  Shop shop = queryWithPassThrougth(id);
 
@@ -67,8 +90,11 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         //使用逻辑过期时间来解决缓存击穿
        // Shop shop = queryWithLogicalExpire(id);
 
+        //本地缓存 + 解决缓存穿透
+        Shop shop = cacheClient.queryWithLocalCache(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+
         //解决缓存穿透
-        Shop shop = cacheClient.queryWithPassThrougth(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        //Shop shop = cacheClient.queryWithPassThrougth(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
 
         //使用互斥锁解决缓存击穿
         //Shop shop = cacheClient.queryWithMutex(CACHE_SHOP_KEY, id, Shop.class, this::getById, CACHE_SHOP_TTL, TimeUnit.MINUTES);
@@ -208,12 +234,8 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     public void saveShop2Redis(Long id,Long expireSeconds){
         //1.查询店铺数据
         Shop shop = getById(id);
-        //2.封装逻辑过期时间
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
-        //3.写入redis
-        stringRedisTemplate.opsForValue().set(CACHE_SHOP_KEY + id,JSONUtil.toJsonStr(redisData));
+        //2.封装逻辑过期时间，写入redis
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 
     //解决缓存穿透
@@ -246,6 +268,15 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         return shop;
     }
 
+    //select * from tb_shop where id in (...)
+    private Map<Long, Shop> listShopByIds(Collection<Long> ids) {
+        Map<Long, Shop> map = new HashMap<>(ids.size());
+        for (Shop shop : listByIds(ids)) {
+            map.put(shop.getId(), shop);
+        }
+        return map;
+    }
+
     /**
      * 更新商铺信息
      * @param shop 商铺数据
@@ -258,14 +289,93 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         if (id == null) {
             return Result.fail("店铺id不能为空");
         }
-        //1.更新数据库
+        //1.记下原来的类型，类型变了要从原来的 shop:geo 里删掉
+        Shop old = getById(id);
+        //2.更新数据库
         updateById(shop);
-        //2.删除缓存
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + id);
+        //3.事务提交后删除缓存，同时通知其他节点清除本地缓存
+        cacheClient.evict(CACHE_SHOP_KEY + id);
+        //4.坐标或类型可能变了，事务提交后更新redis坐标和本地坐标索引
+        shopGeoLoader.onShopChanged(id, old == null ? null : old.getTypeId());
+        shopGeoIndex.onShopChanged(id);
+        //5.名称可能变了，更新名称索引
+        shopNameIndex.onShopChanged(id);
 
         return Result.ok();
     }
 
+    @Override
+    public Result queryShopByTypeScroll(Integer typeId, Long lastId) {
+        //WHERE type_id = ? AND id > lastId ORDER BY id LIMIT n，走type_id索引，不查总数
+        List<Shop> shops = query()
+                .eq("type_id", typeId)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + SystemConstants.DEFAULT_PAGE_SIZE)
+                .list();
+        return Result.ok(toScrollResult(shops, lastId));
+    }
+
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        //1.没有关键字、关键字只有标点或者索引还没加载好，查数据库
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady() || !shopNameIndex.isSearchable(name)) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
+        }
+        //2.名称索引查出按相关度排序的全部id，截取当前页
+        List<Long> ids = shopNameIndex.search(name);
+        int from = (current - 1) * SystemConstants.MAX_PAGE_SIZE;
+        if (from < 0 || ids.size() <= from) {
+            return Result.ok(Collections.emptyList());
+        }
+        //3.根据id批量查询shop，走缓存，按照排序返回
+        return Result.ok(queryShopsInOrder(ids.subList(from, Math.min(from + SystemConstants.MAX_PAGE_SIZE, ids.size()))));
+    }
+
+    @Override
+    public Result queryShopByNameScroll(String name, Long lastId) {
+        //有关键字时用名称索引，按id升序取下一页
+        if (StrUtil.isNotBlank(name) && shopNameIndex.isReady() && shopNameIndex.isSearchable(name)) {
+            List<Long> ids = shopNameIndex.searchAfter(name, lastId, SystemConstants.MAX_PAGE_SIZE);
+            ScrollResult r = toScrollResult(queryShopsInOrder(ids), lastId);
+            //下一页从索引里的最后一个id继续，缓存和数据库里查不到的商铺不影响翻页
+            r.setMinTime(ids.isEmpty() ? lastId : ids.get(ids.size() - 1));
+            return Result.ok(r);
+        }
+        List<Shop> shops = query()
+                .like(StrUtil.isNotBlank(name), "name", name)
+                .gt(lastId != null, "id", lastId)
+                .orderByAsc("id")
+                .last("LIMIT " + SystemConstants.MAX_PAGE_SIZE)
+                .list();
+        return Result.ok(toScrollResult(shops, lastId));
+    }
+
+    //根据id批量查询shop，走缓存，按传入的顺序返回
+    private List<Shop> queryShopsInOrder(List<Long> ids) {
+        Map<Long, Shop> shopMap = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class, this::listShopByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(ids.size());
+        for (Long id : ids) {
+            Shop shop = shopMap.get(id);
+            if (shop != null) {
+                shops.add(shop);
+            }
+        }
+        return shops;
+    }
+
+    //按id升序翻页，minTime放下一页的lastId，offset固定为0
+    private static ScrollResult toScrollResult(List<Shop> shops, Long lastId) {
+        ScrollResult r = new ScrollResult();
+        r.setList(shops);
+        r.setOffset(0);
+        r.setMinTime(shops.isEmpty() ? lastId : shops.get(shops.size() - 1).getId());
+        return r;
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
       //1.判断是否需要根据坐标查询
@@ -276,45 +386,32 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             //返回数据
             return Result.ok(shop.getRecords());
         }
-        //需要查询redis
         //2.计算分页参数
-        Integer from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
-        Integer end = current * SystemConstants.DEFAULT_PAGE_SIZE;
-        //3.查询redis，按距离排序，分页。 结果为：shopId，distance
-        //GEOSEARCH key BYLONLAT x y BYRADIUS 10 WITHDISTANCE
-        String key = SHOP_GEO_KEY + typeId;
-        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
-                key,
-                GeoReference.fromCoordinate(x, y),
-                new Distance(5000),
-                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end)
-        );
-        //4.解析id
-        if (results == null){
-            return Result.ok(Collections.emptyList());
-        }
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> list = results.getContent();
-        if (list.size() <= from){
+        int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
+        //3.查询附近的商铺，按距离排序：启用了本地坐标索引就不访问redis，否则同一网格的请求共用一次GEOSEARCH的结果
+        List<NearbyShopCache.ShopDistance> nearby = shopGeoIndex.isReady()
+                ? shopGeoIndex.search(typeId.longValue(), x, y, NEARBY_RADIUS)
+                : nearbyShopCache.search(typeId, x, y, NEARBY_RADIUS, from + SystemConstants.DEFAULT_PAGE_SIZE);
+        if (from < 0 || nearby.size() <= from){
             //没有下一页结束
             return Result.ok(Collections.emptyList());
         }
-
-        //4.1截取from -end 部分
-        List<Long> ids = new ArrayList<>(list.size());
-        Map<String,Distance> distanceMap = new HashMap<>(list.size());
-        list.stream().skip(from).forEach(result ->{
-            //4.2获取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            //4.3 获取距离
-            Distance distance = result.getDistance();
-            distanceMap.put(shopIdStr,distance);
-        });
-        //5.根据id查询shop
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop :shops){
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+        //4.截取当前页
+        List<NearbyShopCache.ShopDistance> page =
+                nearby.subList(from, Math.min(from + SystemConstants.DEFAULT_PAGE_SIZE, nearby.size()));
+        List<Long> ids = new ArrayList<>(page.size());
+        for (NearbyShopCache.ShopDistance item : page) {
+            ids.add(item.getId());
+        }
+        //5.根据id批量查询shop，走缓存，按照距离顺序返回
+        Map<Long, Shop> shopMap = cacheClient.queryBatch(CACHE_SHOP_KEY, ids, Shop.class, this::listShopByIds, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(page.size());
+        for (NearbyShopCache.ShopDistance item : page) {
+            Shop shop = shopMap.get(item.getId());
+            if (shop != null) {
+                shop.setDistance(item.getDistance());
+                shops.add(shop);
+            }
         }
         //返回
         return Result.ok(shops);
@@ -1,19 +1,28 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONUtil;
-import com.alibaba.fastjson.JSONObject;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 import com.hmdp.mapper.ShopTypeMapper;
 import com.hmdp.service.IShopTypeService;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
 import java.util.List;
 
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SHOP_TYPE_VERSION_KEY;
+
 /**
  * <p>
  *  服务实现类
@@ -22,30 +31,107 @@ import java.util.List;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopTypeServiceImpl extends ServiceImpl<ShopTypeMapper, ShopType> implements IShopTypeService {
 
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
-    //缓存列表
+    @Autowired
+    private RedisMessageListenerContainer listenerContainer;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    //当前的类型列表，不可修改，变更时整体替换
+    private volatile Snapshot snapshot;
+
+    @PostConstruct
+    private void init() {
+        //订阅类型变更，收到更新的版本号就重新加载
+        listenerContainer.addMessageListener((message, pattern) -> {
+            long version = Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8));
+            Snapshot current = snapshot;
+            if (current == null || current.version < version) {
+                reload();
+            }
+        }, new ChannelTopic(SHOP_TYPE_CHANNEL));
+        reload();
+    }
+
+    //直接返回内存里的列表，不访问redis和数据库
     @Override
     public Result queryList() {
-        //1.从redis中查询数据
-        String key="CACHE_SHOPTYPE_KEY";
-        String shopTypeListJson = stringRedisTemplate.opsForValue().get(key);
-        //2.命中侧返回
-        if (StrUtil.isNotBlank(shopTypeListJson)) {
-            //json数据转化为list对象
-            List<ShopType> list = JSONObject.parseArray(shopTypeListJson, ShopType.class);
-            return Result.ok(list);
+        return Result.ok(current().types);
+    }
+
+    //Result.ok(列表) 序列化好的json，首页每次都要查，不用再序列化
+    @Override
+    public byte[] queryListJson() {
+        return current().json;
+    }
+
+    //修改类型后调用：版本号加一并广播，所有节点重新加载
+    @Override
+    public void typesChanged() {
+        Long version = stringRedisTemplate.opsForValue().increment(SHOP_TYPE_VERSION_KEY);
+        reload();
+        stringRedisTemplate.convertAndSend(SHOP_TYPE_CHANNEL, String.valueOf(version));
+    }
+
+    //定期比对版本号，补上没收到的变更通知
+    @Scheduled(fixedDelayString = "${hmdp.shop.type-version-check-interval:60000}")
+    public void checkVersion() {
+        try {
+            Snapshot current = snapshot;
+            if (current == null || current.version != readVersion()) {
+                reload();
+            }
+        } catch (Exception e) {
+            log.error("检查商铺类型版本失败", e);
+        }
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        //启动时没有加载成功，第一次查询时再加载
+        return current != null ? current : reload();
+    }
+
+    //先读版本号再查数据库，查询期间又有变更的话版本号对不上，下次还会重新加载
+    private synchronized Snapshot reload() {
+        long version = readVersion();
+        Snapshot current = snapshot;
+        if (current != null && current.version == version) {
+            return current;
+        }
+        List<ShopType> types = Collections.unmodifiableList(query().orderByAsc("sort").list());
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(Result.ok(types));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("商铺类型序列化失败", e);
+        }
+        snapshot = new Snapshot(version, types, json);
+        log.info("商铺类型加载完成，version={}，types={}", version, types.size());
+        return snapshot;
+    }
+
+    private long readVersion() {
+        String version = stringRedisTemplate.opsForValue().get(SHOP_TYPE_VERSION_KEY);
+        return version == null ? 0 : Long.parseLong(version);
+    }
+
+    private static class Snapshot {
+        final long version;
+        final List<ShopType> types;
+        final byte[] json;
+
+        Snapshot(long version, List<ShopType> types, byte[] json) {
+            this.version = version;
+            this.types = types;
+            this.json = json;
         }
-        //3.查询数据库
-        List<ShopType> list = this.query().orderByAsc("sort").list();
-        String typeListJson = JSONUtil.toJsonStr(list);
-        //4.存入redis中
-        stringRedisTemplate.opsForValue().set(key,typeListJson);
-        //5.返回结果
-        return Result.ok(list);
     }
 }
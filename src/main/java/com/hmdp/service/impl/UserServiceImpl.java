@@ -11,7 +11,10 @@ import com.hmdp.dto.UserDTO;
 import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SignedTokens;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
@@ -23,10 +26,12 @@ import org.springframework.stereotype.Service;
 import javax.servlet.http.HttpSession;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -45,6 +50,15 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private IdBloomFilter idBloomFilter;
+
+    @Autowired
+    private CacheClient cacheClient;
+
+    @Autowired
+    private SignedTokens signedTokens;
+
     //发送验证码
     @Override
     public Result sendCode(String phone, HttpSession session) {
@@ -90,11 +104,15 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         }
         //5.保存用户到session中
         //session.setAttribute("user", BeanUtil.copyProperties(user,UserDTO.class));
+        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
+        //5.签名token模式，用户信息写在token里，不保存到redis
+        if (signedTokens.isEnabled()) {
+            return Result.ok(signedTokens.issue(userDTO));
+        }
         //5.保存用户到redis中
         //5.1创建随机的token为key
         String token = UUID.randomUUID().toString(true);
         //5.2将user对象转化为HashMap存储
-        UserDTO userDTO = BeanUtil.copyProperties(user, UserDTO.class);
         Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
                 CopyOptions.create()
                         .setIgnoreNullValue(true)
@@ -164,6 +182,17 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         return Result.ok(count);
     }
 
+    @Override
+    public Map<Long, UserDTO> queryUserDTOByIds(Collection<Long> ids) {
+        return cacheClient.queryBatch(CACHE_USER_KEY, ids, UserDTO.class, this::listUserDTOByIds, CACHE_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    //select * from tb_user where id in (...)
+    private Map<Long, UserDTO> listUserDTOByIds(Collection<Long> ids) {
+        return listByIds(ids).stream()
+                .collect(Collectors.toMap(User::getId, user -> BeanUtil.copyProperties(user, UserDTO.class)));
+    }
+
     //创建新用户
     private User createUserWithPhone(String phone) {
         User user = new User();
@@ -171,6 +200,7 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
         user.setNickName(SystemConstants.USER_NICK_NAME_PREFIX+RandomUtil.randomNumbers(10));
         //保存用户
         save(user);
+        idBloomFilter.add(IdBloomFilter.TB_USER, user.getId());
         return user;
     }
 }
@@ -1,32 +1,57 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.SeckillOrderStats;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
-import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStock;
 import com.hmdp.utils.UserHolder;
 import lombok.extern.slf4j.Slf4j;
-import org.redisson.api.RLock;
-import org.redisson.api.RedissonClient;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.RedisZSetCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
 import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.CannotCreateTransactionException;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_DLQ_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_AVAILABLE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
 
 /**
  * <p>
@@ -43,57 +68,180 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Autowired
     private ISeckillVoucherService seckillVoucherService;
 
-    //自动生成ID
-    @Autowired
-    private RedisIdWorker redisIdWorker;
-
     //生成redis
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
-    //获取锁
+    //秒杀库存，支持分片
+    @Autowired
+    private SeckillStock seckillStock;
+
     @Autowired
-    private RedissonClient redissonClient;
+    private RedisMessageListenerContainer listenerContainer;
+
+    //本节点已知卖完的优惠券 -> 标记的过期时间，其他节点卖完时通过发布订阅同步过来
+    //有库存退回时通知所有节点清除标记；漏掉通知的话，过期后也会重新访问redis
+    private final Map<Long, Long> soldOut = new ConcurrentHashMap<>();
+
+    //卖完标记的有效期(毫秒)
+    @Value("${hmdp.seckill.sold-out-ttl:10000}")
+    private long soldOutTtl = 10000;
+
+    //消费者数量
+    @Value("${hmdp.seckill.consumers:4}")
+    private int consumerCount;
+
+    //每个消费者一次最多读取的订单数
+    @Value("${hmdp.seckill.batch-size:50}")
+    private int batchSize;
+
+    // 异步处理线程池，每个消费者一个线程
+    private ExecutorService seckillOrderExecutor;
 
-    // 异步处理线程池
-    private static final ExecutorService SECKILL_ORDER_EXECUTOR = Executors.newSingleThreadExecutor();
+    //线程池是否在运行
+    private volatile boolean running = true;
+
+    //本实例的名称，消费者名称的前缀，同一主机上的多个实例也不能重复，不配置时用 主机名:端口
+    @Value("${hmdp.seckill.consumer-name:}")
+    private String instance;
+
+    @Value("${server.port:8080}")
+    private int serverPort;
+
+    //同一个订单处理失败达到这个次数就转入死信队列
+    @Value("${hmdp.seckill.max-deliveries:5}")
+    private int maxDeliveries;
+
+    //未确认的订单超过这个时间(毫秒)没有进展，认为消费者已经宕机，由其他实例接管
+    @Value("${hmdp.seckill.claim-idle:60000}")
+    private long claimIdle;
+
+    //所有订单队列：stream.orders 和分片的 stream.orders:{voucherId:shard}，定期刷新
+    private volatile List<String> orderStreams = Collections.singletonList(SECKILL_ORDER_STREAM);
+
+    //有多个订单队列时逐个非阻塞读取，一轮都没有订单就等待这么久(毫秒)
+    private static final long IDLE_WAIT = 100;
+    //每次最多接管的订单数
+    private static final long CLAIM_BATCH_SIZE = 100;
+    //死信队列最多保留的消息数
+    private static final long DLQ_MAX_LENGTH = 10000;
+
+    //按最小id近似裁剪队列
+    private static final DefaultRedisScript<Long> STREAM_TRIM_SCRIPT;
+    static {
+        STREAM_TRIM_SCRIPT = new DefaultRedisScript<>();
+        STREAM_TRIM_SCRIPT.setLocation(new ClassPathResource("StreamTrim.lua"));
+        STREAM_TRIM_SCRIPT.setResultType(Long.class);
+    }
 
     //阻塞队列
   //  private BlockingQueue<VoucherOrder> orderTasks =new ArrayBlockingQueue<>(1024 * 1024);
 
-    //代理对象
+    //代理对象，注入自己的代理，保证批量下单的事务生效
+    @Lazy
+    @Autowired
     IVoucherOrderService proxy;
 
+    //消费统计
+    private final LongAdder processedOrders = new LongAdder();
+    private final LongAdder processedBatches = new LongAdder();
+    private final LongAdder failedBatches = new LongAdder();
+    private final LongAdder deadLetters = new LongAdder();
+    //最近一个统计周期的吞吐量
+    private volatile double ordersPerSecond;
+    private long lastSampleCount;
+    private long lastSampleTime = System.currentTimeMillis();
+
     //在类初始化之后执行，因为当这个类初始化好了之后，随时都是有可能要执行的
     @PostConstruct
     private void init(){
-        SECKILL_ORDER_EXECUTOR.submit(new VoucherOrderHandler());
+        //订阅卖完通知和库存退回通知
+        listenerContainer.addMessageListener(
+                (message, pattern) -> soldOut.put(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8)),
+                        System.currentTimeMillis() + soldOutTtl),
+                new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        listenerContainer.addMessageListener(
+                (message, pattern) -> soldOut.remove(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8))),
+                new ChannelTopic(SECKILL_AVAILABLE_CHANNEL));
+        //1.创建消费者组，队列不存在时一起创建，再读取分片的订单队列
+        seckillStock.createGroup(SECKILL_ORDER_STREAM);
+        refreshOrderStreams();
+        //2.启动消费者，消费者名称用 主机名:端口，重启后还是同一批消费者，能读到自己没确认的订单
+        if (StrUtil.isBlank(instance)) {
+            instance = hostName() + ":" + serverPort;
+        }
+        seckillOrderExecutor = Executors.newFixedThreadPool(consumerCount);
+        for (int i = 0; i < consumerCount; i++) {
+            seckillOrderExecutor.submit(new VoucherOrderHandler(instance + "-c-" + i));
+        }
+    }
+
+    @PreDestroy
+    private void destroy(){
+        running = false;
+        seckillOrderExecutor.shutdown();
+    }
+
+    //重新读取登记的分片订单队列，其他节点新建的分片券、重新登记的队列在这里加入
+    @Scheduled(fixedDelay = 5000)
+    public void refreshOrderStreams() {
+        try {
+            List<String> streams = seckillStock.orderStreams();
+            for (String stream : streams) {
+                if (!orderStreams.contains(stream)) {
+                    seckillStock.createGroup(stream);
+                }
+            }
+            orderStreams = streams;
+        } catch (Exception e) {
+            log.error("刷新订单队列失败", e);
+        }
     }
 
     private class VoucherOrderHandler implements Runnable{
+
+        private final Consumer consumer;
+
+        VoucherOrderHandler(String name) {
+            this.consumer = Consumer.from(SECKILL_ORDER_GROUP, name);
+        }
+
         @Override
         public void run() {
-            while (true){
+            //启动时先处理上次没确认的订单
+            handlePendingList();
+            while (running){
                 try {
-                    // 1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 >
-                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
-                            StreamOffset.create("stream.orders", ReadOffset.lastConsumed())
-                    );
-                    // 2.判断订单信息是否为空
-                    if (list == null || list.isEmpty()){
-                        //如果为null，说明没有信息，继续下一个循环
-                        continue;
+                    //1.只有stream.orders时阻塞读取；有分片队列时逐个非阻塞读取，集群下各队列在不同slot，不能一次读多个
+                    List<String> streams = orderStreams;
+                    boolean blocking = streams.size() == 1;
+                    boolean idle = true;
+                    for (String stream : streams) {
+                        // 1.1.获取消息队列中的订单信息 XREADGROUP GROUP g1 c-0 COUNT 50 [BLOCK 2000] STREAMS stream >
+                        StreamReadOptions options = StreamReadOptions.empty().count(batchSize);
+                        List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                                consumer,
+                                blocking ? options.block(Duration.ofSeconds(2)) : options,
+                                StreamOffset.create(stream, ReadOffset.lastConsumed())
+                        );
+                        // 2.判断订单信息是否为空
+                        if (list == null || list.isEmpty()){
+                            //如果为null，说明没有信息，读下一个队列
+                            continue;
+                        }
+                        idle = false;
+                        //3.批量创建订单并确认，有没处理完的就去处理pending-list
+                        if (!handleRecords(list)) {
+                            handlePendingList();
+                        }
+                    }
+                    //4.非阻塞读取一轮都没有订单，等一会再读
+                    if (idle && !blocking) {
+                        Thread.sleep(IDLE_WAIT);
                     }
-                    //2.1解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    //3.创建订单
-                    handleVoucherOrder(voucherOrder);
-                    //4.确认信息
-                    stringRedisTemplate.opsForStream().acknowledge("s1","g1",record.getId());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
                 } catch (Exception e) {
                     log.error("处理订单异常",e);
                     //处理异常信息
@@ -103,37 +251,320 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
 
         private void handlePendingList() {
-            while (true){
+            for (String stream : orderStreams) {
+                if (!handlePendingList(stream)) {
+                    return;
+                }
+            }
+        }
+
+        //处理一个队列的pending-list，线程被中断返回false
+        private boolean handlePendingList(String stream) {
+            while (running){
                 try {
-                    //1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c1 COUNT 1 BLOCK 2000 STREAMS s1 0
+                    //1.获取pending-list中的订单信息 XREADGROUP GROUP g1 c-0 COUNT 50 STREAMS stream 0
+                    //  重新读取会增加消息的投递次数，失败次数就是投递次数
                     List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
-                            Consumer.from("g1", "c1"),
-                            StreamReadOptions.empty().count(1),
-                            StreamOffset.create("stream.orders", ReadOffset.from("0"))
+                            consumer,
+                            StreamReadOptions.empty().count(batchSize),
+                            StreamOffset.create(stream, ReadOffset.from("0"))
                     );
                     //2.判断订单是否为空
                     if (list == null || list.isEmpty()){
-                        //如果为null，说明没有信息，继续下一个循环
-                        continue;
+                        //如果为null，说明pending-list没有异常信息，结束循环
+                        break;
+                    }
+                    //3.批量创建订单并确认，还有失败的等一会再重试
+                    if (!handleRecords(list)) {
+                        Thread.sleep(2000);
                     }
-                    //2.1解析数据
-                    MapRecord<String, Object, Object> record = list.get(0);
-                    Map<Object, Object> value = record.getValue();
-                    VoucherOrder voucherOrder = BeanUtil.fillBeanWithMap(value, new VoucherOrder(), true);
-                    //3.创建订单
-                    handleVoucherOrder(voucherOrder);
-                    //4.确认信息 XACK
-                    stringRedisTemplate.opsForStream().acknowledge("s1","g1",record.getId());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
                 } catch (Exception e) {
                     log.error("处理pendding订单异常",e);
                     try {
                         Thread.sleep(2000);
-                    }catch (Exception e1){
-                        e1.printStackTrace();
+                    }catch (InterruptedException e1){
+                        Thread.currentThread().interrupt();
+                        return false;
                     }
                 }
             }
+            return true;
+        }
+    }
+
+    //处理一批订单，全部确认或者转入死信队列返回true，还有要重试的返回false
+    private boolean handleRecords(List<? extends MapRecord<String, ?, ?>> list) {
+        try {
+            handleBatch(list);
+            return true;
+        } catch (RuntimeException e) {
+            failedBatches.increment();
+            log.warn("批量创建订单失败，逐条处理，size={}", list.size(), e);
+        }
+        return handleOneByOne(list);
+    }
+
+    private void handleBatch(List<? extends MapRecord<String, ?, ?>> list) {
+        //1.解析数据
+        List<VoucherOrder> orders = new ArrayList<>(list.size());
+        RecordId[] ids = new RecordId[list.size()];
+        for (int i = 0; i < list.size(); i++) {
+            MapRecord<String, ?, ?> record = list.get(i);
+            orders.add(BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true));
+            ids[i] = record.getId();
+        }
+        //2.一个事务里批量创建订单
+        proxy.createVoucherOrderBatch(orders);
+        //3.整批确认 XACK stream g1 id1 id2 ...，一批订单来自同一个队列
+        stringRedisTemplate.opsForStream().acknowledge(list.get(0).getStream(), SECKILL_ORDER_GROUP, ids);
+        processedOrders.add(orders.size());
+        processedBatches.increment();
+    }
+
+    //逐条创建订单，找出有问题的订单，数据本身有问题且投递次数达到上限的转入死信队列
+    private boolean handleOneByOne(List<? extends MapRecord<String, ?, ?>> list) {
+        boolean allDone = true;
+        for (MapRecord<String, ?, ?> record : list) {
+            try {
+                handleBatch(Collections.singletonList(record));
+            } catch (RuntimeException e) {
+                //0.订单已经插入过了，说明之前处理过，直接确认，不能转入死信队列退回库存
+                if (e instanceof DataIntegrityViolationException && isCreated(record)) {
+                    stringRedisTemplate.opsForStream().acknowledge(record.getStream(), SECKILL_ORDER_GROUP, record.getId());
+                    log.info("订单已经创建过，直接确认，id={}", record.getId());
+                    continue;
+                }
+                //1.数据库连不上这类问题和订单本身无关，不计入失败次数，一直重试
+                if (!isPoison(e)) {
+                    log.warn("创建订单失败，稍后重试，id={}", record.getId(), e);
+                    allDone = false;
+                    continue;
+                }
+                //2.XPENDING查询投递次数，已经不在pending-list说明被别的消费者处理了
+                long deliveries = deliveryCount(record);
+                if (deliveries < 0) {
+                    continue;
+                }
+                if (deliveries < maxDeliveries) {
+                    log.warn("创建订单失败，第{}次，id={}", deliveries, record.getId(), e);
+                    allDone = false;
+                    continue;
+                }
+                //3.达到上限，转入死信队列
+                deadLetter(record, e);
+            }
         }
+        return allDone;
+    }
+
+    //订单id已经在 tb_voucher_order 里
+    private boolean isCreated(MapRecord<String, ?, ?> record) {
+        VoucherOrder order = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+        return order.getId() != null && getById(order.getId()) != null;
+    }
+
+    private static boolean isPoison(RuntimeException e) {
+        return !(e instanceof TransientDataAccessException
+                || e instanceof RecoverableDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof CannotCreateTransactionException);
+    }
+
+    //XPENDING stream g1 id id 1，不在pending-list返回-1
+    private long deliveryCount(MapRecord<String, ?, ?> record) {
+        String id = record.getId().getValue();
+        PendingMessages pending = stringRedisTemplate.opsForStream()
+                .pending(record.getStream(), SECKILL_ORDER_GROUP, Range.closed(id, id), 1);
+        return pending == null || pending.isEmpty() ? -1 : pending.get(0).getTotalDeliveryCount();
+    }
+
+    //写入死信队列并确认，退回redis里扣减的库存，用户可以重新下单
+    private void deadLetter(MapRecord<String, ?, ?> record, RuntimeException e) {
+        //1.XADD stream.orders.dlq MAXLEN n * 原消息字段 sourceId error
+        Map<String, String> value = new HashMap<>(record.getValue().size() + 2);
+        record.getValue().forEach((k, v) -> value.put(String.valueOf(k), String.valueOf(v)));
+        value.put("sourceId", record.getId().getValue());
+        value.put("error", String.valueOf(e.getMessage()));
+        stringRedisTemplate.execute((RedisCallback<RecordId>) connection -> ((StringRedisConnection) connection).xAdd(
+                StreamRecords.newRecord().in(SECKILL_ORDER_DLQ_STREAM).ofStrings(value),
+                RedisStreamCommands.XAddOptions.maxlen(DLQ_MAX_LENGTH)));
+        //2.确认原消息
+        stringRedisTemplate.opsForStream().acknowledge(record.getStream(), SECKILL_ORDER_GROUP, record.getId());
+        deadLetters.increment();
+        //3.退回库存
+        try {
+            VoucherOrder order = BeanUtil.fillBeanWithMap(record.getValue(), new VoucherOrder(), true);
+            if (order.getVoucherId() != null && order.getUserId() != null) {
+                returnStock(order.getVoucherId(), order.getUserId());
+            }
+        } catch (RuntimeException ex) {
+            log.error("死信订单退回库存失败，id={}", record.getId(), ex);
+        }
+        log.error("订单多次处理失败，已转入死信队列，id={}", record.getId(), e);
+    }
+
+    //接管宕机消费者的订单：XPENDING分页遍历pending-list，找出长时间没有进展的消息，XCLAIM到本实例的接管消费者名下再处理
+    //XCLAIM带min-idle，多个实例同时接管时只有一个能成功
+    @Scheduled(initialDelayString = "${hmdp.seckill.claim-idle:60000}", fixedDelayString = "${hmdp.seckill.claim-idle:60000}")
+    public void claimIdleOrders() {
+        for (String stream : orderStreams) {
+            claimIdleOrders(stream);
+        }
+    }
+
+    private void claimIdleOrders(String stream) {
+        try {
+            String claimer = instance + "-claimer";
+            Range<String> range = Range.unbounded();
+            while (running) {
+                //1.XPENDING stream g1 (lastId + 100，从上一页最后一条之后继续
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(stream, SECKILL_ORDER_GROUP, range, CLAIM_BATCH_SIZE);
+                if (pending == null || pending.isEmpty()) {
+                    return;
+                }
+                List<RecordId> ids = new ArrayList<>();
+                for (PendingMessage message : pending) {
+                    if (message.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdle) {
+                        ids.add(message.getId());
+                    }
+                }
+                //2.XCLAIM stream g1 host:port-claimer minIdle id1 id2 ...
+                if (!ids.isEmpty()) {
+                    List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                            ((StringRedisConnection) connection).xClaim(stream, SECKILL_ORDER_GROUP, claimer,
+                                    RedisStreamCommands.XClaimOptions.minIdleMs(claimIdle).ids(ids)));
+                    //3.处理，失败的留在接管消费者名下，下一轮再接管重试
+                    if (claimed != null && !claimed.isEmpty()) {
+                        log.info("接管超时未确认的订单，count={}", claimed.size());
+                        handleRecords(claimed);
+                    }
+                }
+                if (pending.size() < CLAIM_BATCH_SIZE) {
+                    return;
+                }
+                range = Range.of(Range.Bound.exclusive(pending.get(pending.size() - 1).getIdAsString()), Range.Bound.unbounded());
+            }
+        } catch (Exception e) {
+            log.error("接管超时订单异常，stream={}", stream, e);
+        }
+    }
+
+    //裁剪订单队列：比最后投递的消息和最早的未确认消息都早的，已经处理完了，可以删掉
+    //XTRIM stream MINID ~ id，近似裁剪，按整个节点删除，开销小
+    //分片队列消费完并且优惠券没有库存了，取消登记，消费者不再轮询
+    @Scheduled(fixedDelayString = "${hmdp.seckill.trim-interval:60000}")
+    public void trimOrderStream() {
+        boolean retired = false;
+        for (String stream : orderStreams) {
+            if (trimOrderStream(stream) && !SECKILL_ORDER_STREAM.equals(stream) && seckillStock.retireStream(stream)) {
+                log.info("分片订单队列已经消费完，取消登记，stream={}", stream);
+                retired = true;
+            }
+        }
+        if (retired) {
+            refreshOrderStreams();
+        }
+    }
+
+    //裁剪一个队列，返回队列里的订单是否都已经投递并确认
+    private boolean trimOrderStream(String stream) {
+        try {
+            //1.最后投递的消息id
+            RecordId minId = null;
+            StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(stream);
+            for (int i = 0; i < groups.size(); i++) {
+                RecordId delivered = RecordId.of(groups.get(i).lastDeliveredId());
+                minId = minId == null || compare(delivered, minId) < 0 ? delivered : minId;
+            }
+            //2.最早的未确认消息id
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(stream, SECKILL_ORDER_GROUP);
+            boolean pending = summary != null && summary.getTotalPendingMessages() > 0;
+            if (pending) {
+                RecordId oldest = summary.minRecordId();
+                minId = minId == null || compare(oldest, minId) < 0 ? oldest : minId;
+            }
+            //3.最新的消息已经投递，并且没有未确认的，说明都处理完了
+            List<MapRecord<String, Object, Object>> latest = stringRedisTemplate.opsForStream()
+                    .reverseRange(stream, Range.unbounded(), RedisZSetCommands.Limit.limit().count(1));
+            boolean drained = !pending && minId != null
+                    && (latest == null || latest.isEmpty() || compare(latest.get(0).getId(), minId) <= 0);
+            if (minId == null || minId.getTimestamp() == 0) {
+                return drained;
+            }
+            //4.裁剪
+            Long trimmed = stringRedisTemplate.execute(STREAM_TRIM_SCRIPT,
+                    Collections.singletonList(stream), minId.getValue());
+            log.debug("裁剪订单队列，stream={}，minId={}，trimmed={}", stream, minId, trimmed);
+            return drained;
+        } catch (Exception e) {
+            log.error("裁剪订单队列异常，stream={}", stream, e);
+            return false;
+        }
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int c = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return c != 0 ? c : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    //每10秒计算一次吞吐量
+    @Scheduled(fixedRate = 10000)
+    public void sampleThroughput() {
+        long now = System.currentTimeMillis();
+        long count = processedOrders.sum();
+        if (now > lastSampleTime) {
+            ordersPerSecond = (count - lastSampleCount) * 1000.0 / (now - lastSampleTime);
+        }
+        lastSampleCount = count;
+        lastSampleTime = now;
+    }
+
+    @Override
+    public SeckillOrderStats queryConsumerStats() {
+        SeckillOrderStats stats = new SeckillOrderStats();
+        stats.setConsumers(consumerCount);
+        stats.setBatchSize(batchSize);
+        stats.setProcessedOrders(processedOrders.sum());
+        stats.setProcessedBatches(processedBatches.sum());
+        stats.setFailedBatches(failedBatches.sum());
+        stats.setDeadLetters(deadLetters.sum());
+        stats.setOrdersPerSecond(ordersPerSecond);
+        //所有订单队列合计未确认数，延迟取最大的
+        long pending = 0;
+        long lagMillis = 0;
+        for (String stream : orderStreams) {
+            //1.消费者组已读未确认的数量和最后投递的消息id XINFO GROUPS stream
+            StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(stream);
+            String lastDeliveredId = null;
+            for (int i = 0; i < groups.size(); i++) {
+                StreamInfo.XInfoGroup group = groups.get(i);
+                if (SECKILL_ORDER_GROUP.equals(group.groupName())) {
+                    pending += group.pendingCount();
+                    lastDeliveredId = group.lastDeliveredId();
+                }
+            }
+            //2.队列最新一条消息，和最后投递的消息比较，消息id的前半段就是写入时间
+            List<MapRecord<String, Object, Object>> latest = stringRedisTemplate.opsForStream()
+                    .reverseRange(stream, Range.unbounded(), RedisZSetCommands.Limit.limit().count(1));
+            if (latest != null && !latest.isEmpty() && lastDeliveredId != null) {
+                lagMillis = Math.max(lagMillis, latest.get(0).getId().getTimestamp() - RecordId.of(lastDeliveredId).getTimestamp());
+            }
+        }
+        stats.setPending(pending);
+        stats.setLagMillis(lagMillis);
+        return stats;
     }
 
     //用于线程池处理的任务
@@ -155,64 +586,54 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 //            }
 //        }
 //    }
-    //创建订单
-
-    private void handleVoucherOrder(VoucherOrder voucherOrder){
-        //1.获取用户
-        Long userId = voucherOrder.getUserId();
-        //2.创建锁对象
-        RLock redisLock = redissonClient.getLock("lock:order:" + userId);
-        //3.尝试获取锁
-        boolean isLock = redisLock.tryLock();
-        //4.判断是否获得锁成功
-        if (!isLock) {
-            //获取锁失败，直接返回失败或重试
-            log.error("不允许重复下单");
-            return;
-        }
-        try {
-            //注意：由于是spring的事务是放在threadLocal中，此时的是多线程，事务会失效
-            proxy.createVoucherOrder(voucherOrder);
-        } finally {
-            //释放锁
-            redisLock.unlock();
-        }
-
-    }
-
-
-
-
-    //调用Lua脚本得函数
-    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
-    static {
-        SECKILL_SCRIPT = new DefaultRedisScript<>();
-        SECKILL_SCRIPT.setLocation(new ClassPathResource("Seckill.lua"));
-        SECKILL_SCRIPT.setResultType(Long.class);
-    }
 
     //新逻辑，加快效率
     @Override
     public Result seckillVoucher(Long voucherId) {
         //获取用户
         Long userId = UserHolder.getUser().getId();
-        long orderId = redisIdWorker.nextId("order");
-        //1.执行lua脚本
-      Long result = stringRedisTemplate.execute(
-              SECKILL_SCRIPT,
-              Collections.emptyList(),
-              voucherId.toString(),userId.toString(),String.valueOf(orderId)
-      );
-        int r = result.intValue();
-        //2.判断结果是否为0
-        if (r != 0) {
-            //2.1 不为0，代表没有购买资格
-            return Result.fail(r == 1?"库存不足":"不能重复下单");
+        //1.本地已经标记卖完，直接返回，不访问redis
+        Long soldOutUntil = soldOut.get(voucherId);
+        if (soldOutUntil != null) {
+            if (soldOutUntil > System.currentTimeMillis()) {
+                return Result.fail("库存不足");
+            }
+            soldOut.remove(voucherId, soldOutUntil);
+        }
+        //2.执行lua脚本，校验一人一单、扣减库存、取订单id并发送订单消息，都是原子的
+        //  通过校验才取订单id，重复下单和库存不足不消耗id
+        long orderId = seckillStock.deduct(voucherId, userId);
+        //3.判断是否抢到
+        if (orderId < 0) {
+            //3.1 库存不足，标记卖完并通知其他节点
+            if (orderId == SeckillStock.SOLD_OUT) {
+                markSoldOut(voucherId);
+            }
+            //3.2 代表没有购买资格
+            return Result.fail(orderId == SeckillStock.SOLD_OUT?"库存不足":"不能重复下单");
         }
-        //3.返回订单id
+        //4.返回订单id
         return Result.ok(orderId);
     }
 
+    private void markSoldOut(Long voucherId) {
+        if (soldOut.put(voucherId, System.currentTimeMillis() + soldOutTtl) == null) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+        }
+    }
+
+    //订单最终没有创建时退回库存；数据库里已经有这个订单的不退，避免超卖
+    //退回成功后通知所有节点清除卖完标记，退回的库存可以再卖
+    private void returnStock(Long voucherId, Long userId) {
+        if (query().eq("user_id", userId).eq("voucher_id", voucherId).count() > 0) {
+            return;
+        }
+        if (seckillStock.rollback(voucherId, userId)) {
+            soldOut.remove(voucherId);
+            stringRedisTemplate.convertAndSend(SECKILL_AVAILABLE_CHANNEL, voucherId.toString());
+        }
+    }
+
 //    旧逻辑
 
 
@@ -293,9 +714,9 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     @Transactional
     public  void createVoucherOrder(VoucherOrder voucherOrder) {
         //5 一人一单逻辑
-        //5.1 用户id
-        Long userId = UserHolder.getUser().getId();
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder).count();
+        //5.1 用户id，异步线程里拿不到UserHolder，直接用订单上的
+        Long userId = voucherOrder.getUserId();
+        int count = query().eq("user_id", userId).eq("voucher_id", voucherOrder.getVoucherId()).count();
         //5.2 判断是否存在
         if (count > 0) {
             //用户已经购买过了
@@ -305,7 +726,7 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         //6.是，扣减库存
         boolean success = seckillVoucherService.update()
                 .setSql("stock= stock -1")  //set stock = stock -1
-                .eq("voucher_id", voucherOrder) //where voucherId=?
+                .eq("voucher_id", voucherOrder.getVoucherId()) //where voucherId=?
                 .gt("stock",0) // and stock > 0
                 .update();
         if (!success){
@@ -315,4 +736,63 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         save(voucherOrder);
     }
 
+    @Override
+    @Transactional
+    public void createVoucherOrderBatch(List<VoucherOrder> orders) {
+        //1.一人一单：去掉数据库里已经存在的订单(pending-list重新投递的)和本批次里重复的
+        Set<Long> voucherIds = new HashSet<>();
+        Set<Long> userIds = new HashSet<>();
+        for (VoucherOrder order : orders) {
+            voucherIds.add(order.getVoucherId());
+            userIds.add(order.getUserId());
+        }
+        Set<String> exists = new HashSet<>();
+        List<VoucherOrder> saved = query().select("user_id", "voucher_id")
+                .in("voucher_id", voucherIds).in("user_id", userIds).list();
+        for (VoucherOrder order : saved) {
+            exists.add(order.getVoucherId() + ":" + order.getUserId());
+        }
+        //2.按优惠券分组
+        Map<Long, List<VoucherOrder>> byVoucher = new LinkedHashMap<>();
+        for (VoucherOrder order : orders) {
+            if (!exists.add(order.getVoucherId() + ":" + order.getUserId())) {
+                log.error("用户已经购买过一次，userId={}，voucherId={}", order.getUserId(), order.getVoucherId());
+                continue;
+            }
+            byVoucher.computeIfAbsent(order.getVoucherId(), k -> new ArrayList<>()).add(order);
+        }
+        //3.每种优惠券一条sql扣减库存 set stock = stock - n where voucher_id = ? and stock >= n
+        List<VoucherOrder> toSave = new ArrayList<>(orders.size());
+        for (Map.Entry<Long, List<VoucherOrder>> entry : byVoucher.entrySet()) {
+            List<VoucherOrder> group = entry.getValue();
+            int n = group.size();
+            boolean success = seckillVoucherService.update()
+                    .setSql("stock = stock - " + n)
+                    .eq("voucher_id", entry.getKey())
+                    .ge("stock", n)
+                    .update();
+            if (success) {
+                toSave.addAll(group);
+                continue;
+            }
+            //3.1 库存不够整批扣减，退回逐个扣减，能扣几个算几个
+            for (VoucherOrder order : group) {
+                boolean one = seckillVoucherService.update()
+                        .setSql("stock = stock - 1")
+                        .eq("voucher_id", entry.getKey())
+                        .gt("stock", 0)
+                        .update();
+                if (!one) {
+                    log.error("库存不足，orderId={}", order.getId());
+                    continue;
+                }
+                toSave.add(order);
+            }
+        }
+        //4.批量插入订单
+        if (!toSave.isEmpty()) {
+            saveBatch(toSave);
+        }
+    }
+
 }
@@ -0,0 +1,118 @@
+package com.hmdp.utils;
+
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.service.IBlogService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.BLOG_LIKE_DELTA_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKE_FLUSHING_BATCH_KEY;
+import static com.hmdp.utils.RedisConstants.BLOG_LIKE_FLUSHING_KEY;
+
+/**
+ * 点赞数写回数据库：点赞只改redis，增量记在 blog:like:delta，这里定期批量写入 tb_blog
+ * 1.把增量改名成快照并分配批次号，之后的点赞写入新的增量
+ * 2.同一个事务里插入批次号、批量更新点赞数，批次号已存在说明写过了，不再重复加
+ * 3.写完删除快照；中途宕机的话快照还在，下次用同一个批次号重写
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Slf4j
+@Component
+public class BlogLikeFlusher {
+
+    //批次记录保留的天数，只要比快照重试的时间长就行
+    private static final long FLUSH_RECORD_DAYS = 7;
+
+    private static final DefaultRedisScript<List> SNAPSHOT_SCRIPT;
+    private static final DefaultRedisScript<Long> DONE_SCRIPT;
+    static {
+        SNAPSHOT_SCRIPT = new DefaultRedisScript<>();
+        SNAPSHOT_SCRIPT.setLocation(new ClassPathResource("LikeFlushSnapshot.lua"));
+        SNAPSHOT_SCRIPT.setResultType(List.class);
+        DONE_SCRIPT = new DefaultRedisScript<>();
+        DONE_SCRIPT.setLocation(new ClassPathResource("LikeFlushDone.lua"));
+        DONE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final IBlogService blogService;
+
+    private final BlogMapper blogMapper;
+
+    private final RedisIdWorker redisIdWorker;
+
+    public BlogLikeFlusher(StringRedisTemplate stringRedisTemplate,
+                           IBlogService blogService,
+                           BlogMapper blogMapper,
+                           RedisIdWorker redisIdWorker) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.blogService = blogService;
+        this.blogMapper = blogMapper;
+        this.redisIdWorker = redisIdWorker;
+    }
+
+    @Scheduled(fixedDelayString = "${hmdp.blog.like-flush-interval:5000}")
+    public void flush() {
+        try {
+            //有未完成的快照时先写完它，再写新的增量；点赞很多时也最多两轮，剩下的下次再写
+            if (flushOnce()) {
+                flushOnce();
+            }
+        } catch (Exception e) {
+            log.error("点赞增量写入数据库失败，下次重试", e);
+        }
+    }
+
+    @Scheduled(cron = "0 30 4 * * ?")
+    public void cleanFlushRecords() {
+        int removed = blogMapper.deleteLikeFlushBefore(LocalDateTime.now().minusDays(FLUSH_RECORD_DAYS));
+        log.info("清理点赞批次记录，removed={}", removed);
+    }
+
+    //写入一个快照，没有要写的返回false
+    public boolean flushOnce() {
+        //1.取出快照 {批次号, blogId, delta, ...}，批次号用全局id，redis数据丢失后也不会和以前的重复
+        long newBatchId = redisIdWorker.nextId("like-flush");
+        @SuppressWarnings("unchecked")
+        List<Object> snapshot = stringRedisTemplate.execute(
+                SNAPSHOT_SCRIPT,
+                Arrays.asList(BLOG_LIKE_DELTA_KEY, BLOG_LIKE_FLUSHING_KEY, BLOG_LIKE_FLUSHING_BATCH_KEY),
+                String.valueOf(newBatchId)
+        );
+        if (snapshot == null || snapshot.isEmpty()) {
+            return false;
+        }
+        String batchId = snapshot.get(0).toString();
+        //2.合并增量，增量为0的不用更新
+        Map<Long, Long> deltas = new HashMap<>(snapshot.size());
+        for (int i = 1; i + 1 < snapshot.size(); i += 2) {
+            long delta = Long.parseLong(snapshot.get(i + 1).toString());
+            if (delta != 0) {
+                deltas.put(Long.valueOf(snapshot.get(i).toString()), delta);
+            }
+        }
+        //3.写入数据库，批次号已经写过时直接跳过
+        boolean applied = blogService.applyLikeDeltas(Long.parseLong(batchId), deltas);
+        //4.删除快照
+        stringRedisTemplate.execute(
+                DONE_SCRIPT,
+                Arrays.asList(BLOG_LIKE_FLUSHING_KEY, BLOG_LIKE_FLUSHING_BATCH_KEY),
+                batchId
+        );
+        log.debug("点赞增量批次{}，blogs={}，applied={}", batchId, deltas.size(), applied);
+        return true;
+    }
+}
@@ -0,0 +1,91 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public class BloomFilter {
+
+    //位数组，用AtomicLongArray保证并发写入时不会丢位
+    private final AtomicLongArray bits;
+    //位数组的长度
+    private final long numBits;
+    //哈希函数的个数
+    private final int numHashes;
+
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(expectedInsertions, 1);
+        //m = -n*ln(p)/(ln2)^2，按64位对齐
+        long m = (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (m + 63) >>> 6);
+        this.bits = new AtomicLongArray(words);
+        this.numBits = (long) words << 6;
+        //k = m/n*ln2
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    //添加一个id
+    public void put(long id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long index = indexOf(h1 + i * h2);
+            long mask = 1L << index;
+            int word = (int) (index >>> 6);
+            long old;
+            do {
+                old = bits.get(word);
+                if ((old & mask) != 0) {
+                    break;
+                }
+            } while (!bits.compareAndSet(word, old, old | mask));
+        }
+    }
+
+    //判断id是否可能存在，返回false则一定不存在
+    public boolean mightContain(long id) {
+        long hash = mix(id);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= numHashes; i++) {
+            long index = indexOf(h1 + i * h2);
+            if ((bits.get((int) (index >>> 6)) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //根据当前置位比例估算误判率 (置位数/总位数)^k
+    public double expectedFpp() {
+        return Math.pow((double) bitCount() / numBits, numHashes);
+    }
+
+    //已经置为1的位数
+    public long bitCount() {
+        long count = 0;
+        for (int i = 0; i < bits.length(); i++) {
+            count += Long.bitCount(bits.get(i));
+        }
+        return count;
+    }
+
+    private long indexOf(int combinedHash) {
+        //负数取反，保证下标非负
+        if (combinedHash < 0) {
+            combinedHash = ~combinedHash;
+        }
+        return combinedHash % numBits;
+    }
+
+    //splitmix64，把连续的id打散
+    private static long mix(long x) {
+        x += 0x9E3779B97F4A7C15L;
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+}
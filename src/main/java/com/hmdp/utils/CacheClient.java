@@ -1,21 +1,40 @@
 package com.hmdp.utils;
 
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
-import cn.hutool.json.JSONObject;
-import cn.hutool.json.JSONUtil;
+import com.hmdp.utils.codec.CacheCodec;
+import com.hmdp.utils.codec.CacheCodecs;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
-import java.time.LocalDateTime;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
 import static com.hmdp.utils.RedisConstants.LOCK_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
 
 /**
  * 作者:灰爪哇
@@ -27,25 +46,93 @@ public class CacheClient {
 
     private final StringRedisTemplate stringRedisTemplate;
 
-    public CacheClient(StringRedisTemplate stringRedisTemplate) {
+    //缓存数据按字节读写，编码方式由codecs决定
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    private final CacheCodecs codecs = new CacheCodecs();
+
+    //本地一级缓存，容量和过期时间都有上限，超出后按LRU淘汰
+    private final LRUCache<String, Object> localCache =
+            CacheUtil.newLRUCache(SystemConstants.LOCAL_CACHE_CAPACITY, SystemConstants.LOCAL_CACHE_TTL);
+
+    public CacheClient(StringRedisTemplate stringRedisTemplate,
+                       RedisTemplate<String, byte[]> byteRedisTemplate,
+                       RedisMessageListenerContainer listenerContainer) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.byteRedisTemplate = byteRedisTemplate;
+        //订阅缓存失效频道，其他节点删除缓存时同步清掉本地缓存
+        listenerContainer.addMessageListener(
+                (message, pattern) -> localCache.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
     }
 
+    //空值，表示数据库中不存在
+    private static final byte[] EMPTY = new byte[0];
+
     private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
 
+    //正在重建的key，同一节点上并发未命中的请求共享一次数据库查询
+    private static final ConcurrentHashMap<String, CompletableFuture<Object>> IN_FLIGHT = new ConcurrentHashMap<>();
+
+    //注册某个类型的编解码器，替换默认的编码方式
+    public <T> void registerCodec(Class<T> type, CacheCodec<T> codec){
+        codecs.register(type, codec);
+    }
+
     //设置方法
     public void set(String key, Object value, Long time, TimeUnit unit){
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(value),time,unit);
+        byteRedisTemplate.opsForValue().set(key, codecs.encode(value),time,unit);
     }
 
-    //设置逻辑过期时间
+    //设置逻辑过期时间，过期时间以毫秒时间戳写在数据前面
     public void setWithLogicalExpire(String key, Object value,Long time ,TimeUnit unit){
-        //设置逻辑时间
-        RedisData redisData = new RedisData();
-        redisData.setData(value);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        long expireMillis = System.currentTimeMillis() + unit.toMillis(time);
         //写入redis
-        stringRedisTemplate.opsForValue().set(key,JSONUtil.toJsonStr(redisData));
+        byteRedisTemplate.opsForValue().set(key,codecs.encodeWithExpire(value, expireMillis));
+    }
+
+    //删除缓存，并通知所有节点清除本地缓存
+    //在事务里调用时等事务提交后再删，否则其他节点会把还没提交的旧数据重新读进缓存
+    public void evict(String key){
+        Runnable action = () -> {
+            stringRedisTemplate.delete(key);
+            localCache.remove(key);
+            stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    //本地缓存 + redis缓存，本地未命中时走redis(解决缓存穿透)
+    public <R,ID> R queryWithLocalCache(
+            String keyPrefix,
+            ID id,
+            Class<R> type,
+            Function<ID,R> dbFallBack,
+            Long time,
+            TimeUnit unit
+    ){
+        //1.从本地缓存中查询
+        String key = keyPrefix + id;
+        Object cached = localCache.get(key, false);
+        if (type.isInstance(cached)) {
+            return type.cast(cached);
+        }
+        //2.未命中，查询redis和数据库
+        R r = queryWithPassThrougth(keyPrefix, id, type, dbFallBack, time, unit);
+        //3.存在就写入本地缓存，空值不放入本地缓存
+        if (r != null) {
+            localCache.put(key, r);
+        }
+        return r;
     }
 
     //缓存穿透
@@ -60,14 +147,13 @@ public class CacheClient {
     ){
         //1.从redis中查询数据
         String key = keyPrefix + id;
-        String Json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
         //2.是否命中，命中侧返回商铺数据
-        if (StrUtil.isNotBlank(Json)) {
-            R r = JSONUtil.toBean(Json, type);
-            return r;
+        if (bytes != null && bytes.length > 0) {
+            return codecs.decode(bytes, type);
         }
         //2.1判断是否为空
-        if (Json!=null) {
+        if (bytes!=null) {
             return null;
         }
 
@@ -77,7 +163,7 @@ public class CacheClient {
         if (r == null) {
             //4.1不存在返回404
             //4.1将空值写入缓存中
-            stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL,TimeUnit.MINUTES);
+            byteRedisTemplate.opsForValue().set(key,EMPTY,CACHE_NULL_TTL,TimeUnit.MINUTES);
             return null;
         }
         //4.2存在就将数据写入缓存中
@@ -86,6 +172,69 @@ public class CacheClient {
         return r;
     }
 
+    //批量查询：一次MGET查询redis，未命中的一次性查询数据库，再用pipeline写回redis
+    public <R,ID> Map<ID,R> queryBatch(
+            String keyPrefix,
+            Collection<ID> ids,
+            Class<R> type,
+            Function<Collection<ID>,Map<ID,R>> dbFallBack,
+            Long time,
+            TimeUnit unit
+    ){
+        if (ids == null || ids.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        //1.去重，保持传入的顺序
+        List<ID> idList = new ArrayList<>(new LinkedHashSet<>(ids));
+        List<String> keys = new ArrayList<>(idList.size());
+        for (ID id : idList) {
+            keys.add(keyPrefix + id);
+        }
+        //2.MGET批量查询redis
+        List<byte[]> values = byteRedisTemplate.opsForValue().multiGet(keys);
+        Map<ID,R> found = new LinkedHashMap<>(idList.size());
+        List<ID> misses = new ArrayList<>();
+        for (int i = 0; i < idList.size(); i++) {
+            byte[] bytes = values == null ? null : values.get(i);
+            if (bytes != null && bytes.length > 0) {
+                //2.1命中
+                found.put(idList.get(i), codecs.decode(bytes, type));
+            } else if (bytes == null) {
+                //2.2未命中，空字符串说明数据库中也不存在，不再查询
+                misses.add(idList.get(i));
+            }
+        }
+        //3.未命中的一次性查询数据库 where id in (...)
+        if (!misses.isEmpty()) {
+            Map<ID,R> loaded = dbFallBack.apply(misses);
+            long seconds = unit.toSeconds(time);
+            long nullSeconds = TimeUnit.MINUTES.toSeconds(CACHE_NULL_TTL);
+            //4.pipeline写回redis，不存在的写入空值
+            byteRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (ID id : misses) {
+                    byte[] rawKey = (keyPrefix + id).getBytes(StandardCharsets.UTF_8);
+                    R r = loaded.get(id);
+                    if (r == null) {
+                        connection.setEx(rawKey, nullSeconds, EMPTY);
+                    } else {
+                        connection.setEx(rawKey, seconds, codecs.encode(r));
+                        found.put(id, r);
+                    }
+                }
+                return null;
+            });
+        }
+        //5.按照传入的顺序返回，不存在的id不返回
+        Map<ID,R> result = new LinkedHashMap<>(found.size());
+        for (ID id : idList) {
+            R r = found.get(id);
+            if (r != null) {
+                result.put(id, r);
+            }
+        }
+        return result;
+    }
+
     //使用逻辑过期时间来解决缓存击穿
     public <R,ID> R queryWithLogicalExpire(
             String keyPrefix,
@@ -97,17 +246,16 @@ public class CacheClient {
             ){
         //1.从redis中查询数据
         String key = keyPrefix + id;
-        String Json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
         //2.是否命中，未命中返回空
-        if (StrUtil.isBlank(Json)) {
+        if (bytes == null || bytes.length == 0) {
             return null;
         }
-        //3.命中，先把json反序列化为java对象
-        RedisData redisData = JSONUtil.toBean(Json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
+        //3.命中，读取过期时间头和数据，只解析一次
+        CacheCodecs.Expiring<R> expiring = codecs.decodeWithExpire(bytes, type);
+        R r = expiring.getData();
         //4判断缓存是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
+        if (!expiring.isExpired()) {
             //4.1 未过期，直接返回店铺信息
             return r;
         }
@@ -119,14 +267,15 @@ public class CacheClient {
         //5.2判断是否获取锁成功
         if (isLock){
             //5.2.1 获取锁成功后 做DoubleCheck；
-            Json = stringRedisTemplate.opsForValue().get(key);
-            if (StrUtil.isBlank(Json)) {
+            bytes = byteRedisTemplate.opsForValue().get(key);
+            if (bytes == null || bytes.length == 0) {
+                unlock(lockKey);
                 return null;
             }
-            redisData = JSONUtil.toBean(Json, RedisData.class);
-            r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
-            expireTime = redisData.getExpireTime();
-            if (expireTime.isAfter(LocalDateTime.now())) {
+            expiring = codecs.decodeWithExpire(bytes, type);
+            r = expiring.getData();
+            if (!expiring.isExpired()) {
+                unlock(lockKey);
                 return r;
             }
         //5.3 是，重建缓存---》开启独立线程查询数据库
@@ -161,62 +310,88 @@ public class CacheClient {
             ) {
         //1.从redis中查询数据
         String key = keyPrefix + id;
-        String Json = stringRedisTemplate.opsForValue().get(key);
+        byte[] bytes = byteRedisTemplate.opsForValue().get(key);
         //2.是否命中，命中侧返回商铺数据
-        if (StrUtil.isNotBlank(Json)) {
-            R r = JSONUtil.toBean(Json, type);
-            return r;
+        if (bytes != null && bytes.length > 0) {
+            return codecs.decode(bytes, type);
         }
         //2.1判断是否为空
-        if (Json!=null) {
+        if (bytes!=null) {
             return null;
         }
-        //3.未命中
-        //3.1尝试获取锁
-        String lockKey = LOCK_SHOP_KEY +id;
-        R r = null;
+        //3.未命中，同一个key在本节点只允许一个线程去重建
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = IN_FLIGHT.putIfAbsent(key, future);
+        if (running != null) {
+            //3.1已经有线程在重建，等待它完成后直接拿结果，不再轮询
+            try {
+                return type.cast(running.join());
+            } catch (CompletionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
+        //3.2本节点的leader负责查询数据库并写回缓存
         try {
-            boolean isLock = tryLock(lockKey);
-            //3.2判断是否获取锁
-            if (!isLock) {
-                //3.3否，休眠一段时间
+            R r = rebuildWithMutex(key, LOCK_SHOP_KEY + id, type, () -> dbFallBack.apply(id), time, unit);
+            future.complete(r);
+            return r;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            //3.3重建结束，移除登记
+            IN_FLIGHT.remove(key, future);
+        }
+    }
+
+    //只有本节点的leader去竞争redis互斥锁，没抢到说明其他节点在重建，等它写回缓存
+    private <R> R rebuildWithMutex(String key, String lockKey, Class<R> type, Supplier<R> dbFallBack, Long time, TimeUnit unit) {
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(LOCK_SHOP_TTL);
+        while (!tryLock(lockKey)) {
+            //1.没有获取到锁，超过锁的有效期还没等到就自己查询数据库
+            if (System.currentTimeMillis() > deadline) {
+                return dbFallBack.get();
+            }
+            try {
                 Thread.sleep(50);
-                //递归回溯
-                return queryWithMutex(keyPrefix,id,type,dbFallBack,time,unit);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
             }
-            //3.4是，
-            // 3.4.1再次查询缓存。做DoubleCheck
-             Json = stringRedisTemplate.opsForValue().get(key);
-            //2.是否命中，命中侧返回商铺数据
-            if (StrUtil.isNotBlank(Json)) {
-                 r = JSONUtil.toBean(Json, type);
-                return r;
+            //2.其他节点重建完成，直接返回
+            byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+            if (bytes != null && bytes.length > 0) {
+                return codecs.decode(bytes, type);
             }
-            //2.1判断是否为空
-            if (Json!=null) {
+            if (bytes != null) {
                 return null;
             }
-
-            //3.4.2根据id查询数据库
-             r = dbFallBack.apply(id);
-            //4.判断是否存在
+        }
+        try {
+            //3.获取锁成功，再次查询缓存。做DoubleCheck
+            byte[] bytes = byteRedisTemplate.opsForValue().get(key);
+            if (bytes != null && bytes.length > 0) {
+                return codecs.decode(bytes, type);
+            }
+            if (bytes != null) {
+                return null;
+            }
+            //4.根据id查询数据库
+            R r = dbFallBack.get();
             if (r == null) {
-                //4.1不存在返回404
-                //4.1将空值写入缓存中
-                stringRedisTemplate.opsForValue().set(key,"",CACHE_NULL_TTL,TimeUnit.MINUTES);
+                //4.1不存在，将空值写入缓存中
+                byteRedisTemplate.opsForValue().set(key,EMPTY,CACHE_NULL_TTL,TimeUnit.MINUTES);
                 return null;
             }
             //4.2存在就将数据写入缓存中
-           this.set(key,r,time,unit);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }finally {
+            this.set(key,r,time,unit);
+            return r;
+        } finally {
             //5.释放锁
             unlock(lockKey);
         }
-        //6.返回商铺数据
-        return r;
     }
+
     //释放锁
     private void unlock(String key) {
         stringRedisTemplate.delete(key);
@@ -0,0 +1,199 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.FollowMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_FEED_COMPACT_KEY;
+
+/**
+ * 收件箱后台整理：删掉已经删除的笔记、已经取关的作者的笔记，超过上限的旧笔记一起裁掉
+ * 是否还关注着作者以 tb_follow 为准，推送也是按 tb_follow 推的，redis里的 follow:userId 可能不完整
+ * 发件箱只删已经删除的笔记。按上限裁剪时记录裁剪边界，删掉无效笔记不影响边界。多个实例只有拿到锁的那个执行
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Slf4j
+@Component
+public class FeedCompactor {
+
+    //每次SCAN的key数量
+    private static final int SCAN_COUNT = 1000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final BlogMapper blogMapper;
+
+    private final FollowMapper followMapper;
+
+    private final FeedHorizon feedHorizon;
+
+    private final RedissonClient redissonClient;
+
+    //每个收件箱、发件箱最多保留的笔记数
+    private final int inboxCap;
+
+    public FeedCompactor(StringRedisTemplate stringRedisTemplate,
+                         BlogMapper blogMapper,
+                         FollowMapper followMapper,
+                         FeedHorizon feedHorizon,
+                         RedissonClient redissonClient,
+                         @Value("${hmdp.feed.inbox-cap:1000}") int inboxCap) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.blogMapper = blogMapper;
+        this.followMapper = followMapper;
+        this.feedHorizon = feedHorizon;
+        this.redissonClient = redissonClient;
+        this.inboxCap = inboxCap;
+    }
+
+    @Scheduled(initialDelayString = "${hmdp.feed.compact-interval:3600000}",
+            fixedDelayString = "${hmdp.feed.compact-interval:3600000}")
+    public void compactAll() {
+        //1.获取锁，别的实例正在整理就跳过这一轮
+        RLock lock = redissonClient.getLock(LOCK_FEED_COMPACT_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            //2.SCAN feed:* 逐个整理，不用KEYS阻塞redis
+            List<String> keys = scanFeedKeys();
+            long removed = 0;
+            for (String key : keys) {
+                try {
+                    removed += compact(key);
+                } catch (Exception e) {
+                    log.error("整理收件箱失败，key={}", key, e);
+                }
+            }
+            log.info("收件箱整理完成，keys={}，removed={}", keys.size(), removed);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //整理一个收件箱或发件箱，返回删掉的条数
+    public long compact(String key) {
+        boolean outbox = key.startsWith(FEED_OUTBOX_KEY);
+        //1.先按上限裁剪，老数据可能是加上限之前写入的
+        Long trimmed = stringRedisTemplate.opsForZSet().removeRange(key, 0, -(inboxCap + 1));
+        Set<ZSetOperations.TypedTuple<String>> tuples = stringRedisTemplate.opsForZSet().rangeWithScores(key, 0, -1);
+        if (tuples == null || tuples.isEmpty()) {
+            return trimmed == null ? 0 : trimmed;
+        }
+        //1.1 裁剪过，或者已经写满(记录边界之前就可能裁剪过)，记录裁剪边界，要在删掉无效笔记之前
+        if ((trimmed != null && trimmed > 0) || tuples.size() >= inboxCap) {
+            feedHorizon.raise(Collections.singletonMap(key, tuples.iterator().next()));
+        }
+        Set<String> members = new LinkedHashSet<>(tuples.size() * 2);
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            members.add(tuple.getValue());
+        }
+        //2.批量查询还存在的笔记和作者
+        List<Long> blogIds = new ArrayList<>(members.size());
+        for (String member : members) {
+            blogIds.add(Long.valueOf(member));
+        }
+        List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                .select("id", "user_id")
+                .in("id", blogIds));
+        Map<String, Long> authors = new HashMap<>(blogs.size() * 2);
+        for (Blog blog : blogs) {
+            authors.put(blog.getId().toString(), blog.getUserId());
+        }
+        //3.收件箱还要检查是否还关注着作者
+        Set<Long> followed = outbox
+                ? Collections.emptySet()
+                : followedAuthors(Long.valueOf(key.substring(FEED_KEY.length())), authors.values());
+        List<String> stale = new ArrayList<>();
+        for (String member : members) {
+            Long authorId = authors.get(member);
+            if (authorId == null || (!outbox && !followed.contains(authorId))) {
+                stale.add(member);
+            }
+        }
+        //4.删除
+        if (!stale.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(key, stale.toArray());
+        }
+        return (trimmed == null ? 0 : trimmed) + stale.size();
+    }
+
+    //select follow_user_id from tb_follow where user_id = ? and follow_user_id in (...)
+    private Set<Long> followedAuthors(Long userId, Collection<Long> authorIds) {
+        if (authorIds.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<Object> rows = followMapper.selectObjs(new QueryWrapper<Follow>()
+                .select("follow_user_id")
+                .eq("user_id", userId)
+                .in("follow_user_id", new HashSet<>(authorIds)));
+        Set<Long> followed = new HashSet<>(rows.size() * 2);
+        for (Object row : rows) {
+            followed.add(((Number) row).longValue());
+        }
+        return followed;
+    }
+
+    //收件箱 feed:{userId} 和发件箱 feed:outbox:{authorId}，跳过feed:progress、feed:bigv
+    private List<String> scanFeedKeys() {
+        List<String> keys = new ArrayList<>();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            ScanOptions options = ScanOptions.scanOptions().match(FEED_KEY + "*").count(SCAN_COUNT).build();
+            try (Cursor<byte[]> cursor = conn.scan(options)) {
+                while (cursor.hasNext()) {
+                    String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                    if (isFeedBox(key)) {
+                        keys.add(key);
+                    }
+                }
+            }
+            return null;
+        });
+        return keys;
+    }
+
+    private static boolean isFeedBox(String key) {
+        String id = key.startsWith(FEED_OUTBOX_KEY)
+                ? key.substring(FEED_OUTBOX_KEY.length())
+                : key.substring(FEED_KEY.length());
+        if (id.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
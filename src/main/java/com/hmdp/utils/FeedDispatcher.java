@@ -0,0 +1,397 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.service.IFollowService;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.RedisStreamCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static com.hmdp.utils.RedisConstants.FEED_BIGV_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_GROUP;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_PROGRESS_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_STREAM;
+
+/**
+ * 笔记推送到粉丝收件箱，发布时只写一条消息到 stream.feed，后台线程分页读取粉丝、批量写入收件箱
+ * 每推送完一页，把最后一个follow记录的id写入 feed:progress，宕机重启后从pending-list里接着推
+ * 实例下线或者换了主机名，它没推完的消息超时后由其他实例XCLAIM接管，从记录的进度接着推
+ * 粉丝数超过阈值的作者(大V)只写自己的发件箱 feed:outbox:{authorId}，由粉丝读取时拉取，见 FeedReader
+ * 收件箱和发件箱写入时按排名裁剪，只保留最新的 inboxCap 条，裁剪边界记录在 feed:horizon，更早的笔记读取时从数据库拉
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Slf4j
+@Component
+public class FeedDispatcher {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final IFollowService followService;
+
+    private final FeedHorizon feedHorizon;
+
+    //每页读取的粉丝数，也是每次管道写入的数量
+    private final int batchSize;
+
+    //粉丝数达到这个值的作者只写发件箱
+    private final int bigAuthorThreshold;
+
+    //每个收件箱、发件箱最多保留的笔记数
+    private final int inboxCap;
+
+    //本实例的消费者名称，同一主机上的多个实例也不能重复
+    private final String instance;
+
+    //未确认的消息超过这个时间(毫秒)没有进展，认为推送的实例已经宕机，由其他实例接管
+    private final long claimIdle;
+
+    //每次最多接管的消息数
+    private static final long CLAIM_BATCH_SIZE = 100;
+
+    //按最小id近似裁剪队列
+    private static final DefaultRedisScript<Long> STREAM_TRIM_SCRIPT;
+    static {
+        STREAM_TRIM_SCRIPT = new DefaultRedisScript<>();
+        STREAM_TRIM_SCRIPT.setLocation(new ClassPathResource("StreamTrim.lua"));
+        STREAM_TRIM_SCRIPT.setResultType(Long.class);
+    }
+
+    private final ExecutorService feedExecutor = Executors.newSingleThreadExecutor();
+
+    private volatile boolean running = true;
+
+    public FeedDispatcher(StringRedisTemplate stringRedisTemplate,
+                          IFollowService followService,
+                          FeedHorizon feedHorizon,
+                          @Value("${hmdp.feed.batch-size:500}") int batchSize,
+                          @Value("${hmdp.feed.big-author-threshold:5000}") int bigAuthorThreshold,
+                          @Value("${hmdp.feed.inbox-cap:1000}") int inboxCap,
+                          @Value("${hmdp.feed.consumer-name:}") String consumerName,
+                          @Value("${server.port:8080}") int serverPort,
+                          @Value("${hmdp.feed.claim-idle:60000}") long claimIdle) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.followService = followService;
+        this.feedHorizon = feedHorizon;
+        this.batchSize = batchSize;
+        this.bigAuthorThreshold = bigAuthorThreshold;
+        this.inboxCap = inboxCap;
+        //不配置时用 主机名:端口，重启后还是同一个消费者，能读到自己没确认的消息
+        this.instance = StrUtil.isBlank(consumerName) ? hostName() + ":" + serverPort : consumerName;
+        this.claimIdle = claimIdle;
+    }
+
+    @PostConstruct
+    private void init() {
+        //1.创建消费者组，队列不存在时一起创建
+        try {
+            stringRedisTemplate.opsForStream().createGroup(FEED_STREAM, ReadOffset.from("0"), FEED_GROUP);
+        } catch (Exception e) {
+            log.debug("消费者组已存在，group={}", FEED_GROUP);
+        }
+        //2.启动消费者
+        feedExecutor.submit(new FeedHandler(Consumer.from(FEED_GROUP, instance + "-feed")));
+    }
+
+    @PreDestroy
+    private void destroy() {
+        running = false;
+        feedExecutor.shutdown();
+    }
+
+    //发布笔记：只写一条消息，推送在后台完成
+    public void publish(Blog blog) {
+        FeedMessage message = new FeedMessage();
+        message.setBlogId(blog.getId());
+        message.setAuthorId(blog.getUserId());
+        message.setTime(System.currentTimeMillis());
+        Map<String, String> value = new HashMap<>(4);
+        value.put("blogId", message.getBlogId().toString());
+        value.put("authorId", message.getAuthorId().toString());
+        value.put("time", message.getTime().toString());
+        stringRedisTemplate.opsForStream().add(StreamRecords.newRecord().in(FEED_STREAM).ofMap(value));
+    }
+
+    //推送一条消息，从上次的进度接着推
+    private void dispatch(RecordId recordId, FeedMessage message) {
+        String field = recordId.getValue();
+        String blogId = message.getBlogId().toString();
+        double score = message.getTime();
+        //1.大V只写发件箱，粉丝读取时再拉取
+        if (isBigAuthor(message.getAuthorId())) {
+            pushToOutbox(message.getAuthorId(), blogId, score);
+            stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM, FEED_GROUP, recordId);
+            return;
+        }
+        //2.读取进度
+        Object progress = stringRedisTemplate.opsForHash().get(FEED_PROGRESS_KEY, field);
+        long lastFollowId = progress == null ? 0 : Long.parseLong(progress.toString());
+        while (true) {
+            //3.按照follow记录的id分页读取粉丝
+            List<Follow> follows = followService.query()
+                    .select("id", "user_id")
+                    .eq("follow_user_id", message.getAuthorId())
+                    .gt("id", lastFollowId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + batchSize)
+                    .list();
+            if (follows.isEmpty()) {
+                break;
+            }
+            //4.管道批量写入粉丝收件箱，重复写入分数不变，可以重放
+            List<Long> followerIds = new ArrayList<>(follows.size());
+            for (Follow follow : follows) {
+                followerIds.add(follow.getUserId());
+            }
+            pushToInboxes(followerIds, blogId, score);
+            //5.记录进度
+            lastFollowId = follows.get(follows.size() - 1).getId();
+            stringRedisTemplate.opsForHash().put(FEED_PROGRESS_KEY, field, String.valueOf(lastFollowId));
+            if (follows.size() < batchSize) {
+                break;
+            }
+        }
+        //6.推送完成，确认消息并删除进度
+        stringRedisTemplate.opsForStream().acknowledge(FEED_STREAM, FEED_GROUP, recordId);
+        stringRedisTemplate.opsForHash().delete(FEED_PROGRESS_KEY, field);
+    }
+
+    //接管宕机实例的推送：XPENDING分页遍历pending-list，找出长时间没有进展的消息，XCLAIM到本实例的接管消费者名下接着推
+    //XCLAIM带min-idle，多个实例同时接管时只有一个能成功；推送失败的留在接管消费者名下，超时后再接管
+    @Scheduled(initialDelayString = "${hmdp.feed.claim-idle:60000}", fixedDelayString = "${hmdp.feed.claim-idle:60000}")
+    public void claimIdleMessages() {
+        try {
+            String claimer = instance + "-claimer";
+            Range<String> range = Range.unbounded();
+            while (running) {
+                //1.XPENDING stream.feed g1 (lastId + 100，从上一页最后一条之后继续
+                PendingMessages pending = stringRedisTemplate.opsForStream()
+                        .pending(FEED_STREAM, FEED_GROUP, range, CLAIM_BATCH_SIZE);
+                if (pending == null || pending.isEmpty()) {
+                    return;
+                }
+                List<RecordId> ids = new ArrayList<>();
+                for (PendingMessage message : pending) {
+                    if (message.getElapsedTimeSinceLastDelivery().toMillis() >= claimIdle) {
+                        ids.add(message.getId());
+                    }
+                }
+                //2.XCLAIM stream.feed g1 host:port-claimer minIdle id1 id2 ...
+                if (!ids.isEmpty()) {
+                    List<StringRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<StringRecord>>) connection ->
+                            ((StringRedisConnection) connection).xClaim(FEED_STREAM, FEED_GROUP, claimer,
+                                    RedisStreamCommands.XClaimOptions.minIdleMs(claimIdle).ids(ids)));
+                    //3.从记录的进度接着推
+                    if (claimed != null) {
+                        for (StringRecord record : claimed) {
+                            log.info("接管超时未推送完的笔记，id={}", record.getId());
+                            dispatch(record.getId(), BeanUtil.fillBeanWithMap(record.getValue(), new FeedMessage(), true));
+                        }
+                    }
+                }
+                if (pending.size() < CLAIM_BATCH_SIZE) {
+                    return;
+                }
+                range = Range.of(Range.Bound.exclusive(pending.get(pending.size() - 1).getIdAsString()), Range.Bound.unbounded());
+            }
+        } catch (Exception e) {
+            log.error("接管超时推送异常", e);
+        }
+    }
+
+    //裁剪推送队列：比最后投递的消息和最早的未确认消息都早的，已经推送完了，可以删掉
+    //XTRIM stream.feed MINID ~ id，近似裁剪，按整个节点删除，开销小
+    @Scheduled(fixedDelayString = "${hmdp.feed.trim-interval:60000}")
+    public void trimFeedStream() {
+        try {
+            //1.最后投递的消息id
+            RecordId minId = null;
+            StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(FEED_STREAM);
+            for (int i = 0; i < groups.size(); i++) {
+                RecordId delivered = RecordId.of(groups.get(i).lastDeliveredId());
+                minId = minId == null || compare(delivered, minId) < 0 ? delivered : minId;
+            }
+            //2.最早的未确认消息id
+            PendingMessagesSummary summary = stringRedisTemplate.opsForStream().pending(FEED_STREAM, FEED_GROUP);
+            if (summary != null && summary.getTotalPendingMessages() > 0) {
+                RecordId oldest = summary.minRecordId();
+                minId = minId == null || compare(oldest, minId) < 0 ? oldest : minId;
+            }
+            if (minId == null || minId.getTimestamp() == 0) {
+                return;
+            }
+            //3.裁剪
+            Long trimmed = stringRedisTemplate.execute(STREAM_TRIM_SCRIPT,
+                    Collections.singletonList(FEED_STREAM), minId.getValue());
+            log.debug("裁剪推送队列，minId={}，trimmed={}", minId, trimmed);
+        } catch (Exception e) {
+            log.error("裁剪推送队列异常", e);
+        }
+    }
+
+    private static int compare(RecordId a, RecordId b) {
+        int c = Long.compare(a.getTimestamp(), b.getTimestamp());
+        return c != 0 ? c : Long.compare(a.getSequence(), b.getSequence());
+    }
+
+    //粉丝数超过阈值就标记为大V，标记后不再取消，之前写入发件箱的笔记粉丝才能一直读到
+    private boolean isBigAuthor(Long authorId) {
+        if (Boolean.TRUE.equals(stringRedisTemplate.opsForSet().isMember(FEED_BIGV_KEY, authorId.toString()))) {
+            return true;
+        }
+        int followers = followService.query().eq("follow_user_id", authorId).count();
+        if (followers < bigAuthorThreshold) {
+            return false;
+        }
+        stringRedisTemplate.opsForSet().add(FEED_BIGV_KEY, authorId.toString());
+        return true;
+    }
+
+    //写入作者的发件箱，超出上限的旧笔记一起删掉
+    public void pushToOutbox(Long authorId, String blogId, double score) {
+        push(Collections.singletonList(FEED_OUTBOX_KEY + authorId), blogId, score);
+    }
+
+    //管道批量写入粉丝的收件箱，每个收件箱只保留最新的inboxCap条
+    public void pushToInboxes(Collection<Long> followerIds, String blogId, double score) {
+        List<String> keys = new ArrayList<>(followerIds.size());
+        for (Long followerId : followerIds) {
+            keys.add(FEED_KEY + followerId);
+        }
+        push(keys, blogId, score);
+    }
+
+    //ZADD key score blogId、ZREMRANGEBYRANK key 0 -(cap+1)、ZRANGE key 0 0 WITHSCORES，裁掉了旧笔记的记录裁剪边界
+    private void push(List<String> keys, String blogId, double score) {
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (String key : keys) {
+                conn.zAdd(key, score, blogId);
+                conn.zRemRange(key, 0, -(inboxCap + 1));
+                conn.zRangeWithScores(key, 0, 0);
+            }
+            return null;
+        });
+        Map<String, ZSetOperations.TypedTuple<String>> trimmed = new HashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            Long removed = (Long) results.get(3 * i + 1);
+            @SuppressWarnings("unchecked")
+            Collection<ZSetOperations.TypedTuple<String>> oldest =
+                    (Collection<ZSetOperations.TypedTuple<String>>) results.get(3 * i + 2);
+            if (removed != null && removed > 0 && oldest != null && !oldest.isEmpty()) {
+                trimmed.put(keys.get(i), oldest.iterator().next());
+            }
+        }
+        feedHorizon.raise(trimmed);
+    }
+
+    private class FeedHandler implements Runnable {
+
+        private final Consumer consumer;
+
+        FeedHandler(Consumer consumer) {
+            this.consumer = consumer;
+        }
+
+        @Override
+        public void run() {
+            //启动时先把上次没推完的消息推完
+            handlePendingList();
+            while (running) {
+                try {
+                    //1.获取消息 XREADGROUP GROUP g1 host:port-feed COUNT 1 BLOCK 2000 STREAMS stream.feed >
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            consumer,
+                            StreamReadOptions.empty().count(1).block(Duration.ofSeconds(2)),
+                            StreamOffset.create(FEED_STREAM, ReadOffset.lastConsumed())
+                    );
+                    if (list == null || list.isEmpty()) {
+                        continue;
+                    }
+                    //2.推送
+                    handle(list.get(0));
+                } catch (Exception e) {
+                    log.error("推送笔记异常", e);
+                    handlePendingList();
+                }
+            }
+        }
+
+        private void handlePendingList() {
+            while (running) {
+                try {
+                    //1.获取pending-list中的消息 XREADGROUP GROUP g1 host:port-feed COUNT 1 STREAMS stream.feed 0
+                    List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream().read(
+                            consumer,
+                            StreamReadOptions.empty().count(1),
+                            StreamOffset.create(FEED_STREAM, ReadOffset.from("0"))
+                    );
+                    if (list == null || list.isEmpty()) {
+                        break;
+                    }
+                    //2.从记录的进度接着推送
+                    handle(list.get(0));
+                } catch (Exception e) {
+                    log.error("处理pending推送异常", e);
+                    try {
+                        Thread.sleep(2000);
+                    } catch (InterruptedException e1) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void handle(MapRecord<String, Object, Object> record) {
+            FeedMessage message = BeanUtil.fillBeanWithMap(record.getValue(), new FeedMessage(), true);
+            dispatch(record.getId(), message);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    //stream.feed 里的消息
+    @Data
+    public static class FeedMessage {
+        private Long blogId;
+        private Long authorId;
+        private Long time;
+    }
+}
@@ -0,0 +1,83 @@
+package com.hmdp.utils;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.FEED_HORIZON_KEY;
+
+/**
+ * 收件箱、发件箱的裁剪边界，保存在 feed:horizon：key -> 分数:笔记id
+ * 按排名裁掉旧笔记时记录裁剪后最早的一条，比它早的笔记可能已经不在redis里，读取时从数据库拉取
+ * 边界显式保存，整理时删掉已删除、已取关的笔记不会让边界丢失
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Component
+public class FeedHorizon {
+
+    //只往新的方向移动边界
+    private static final DefaultRedisScript<Long> RAISE_SCRIPT;
+    static {
+        RAISE_SCRIPT = new DefaultRedisScript<>();
+        RAISE_SCRIPT.setLocation(new ClassPathResource("FeedHorizon.lua"));
+        RAISE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public FeedHorizon(StringRedisTemplate stringRedisTemplate) {
+        this.stringRedisTemplate = stringRedisTemplate;
+    }
+
+    //裁剪过的key -> 裁剪后最早的一条，管道批量更新边界
+    public void raise(Map<String, ZSetOperations.TypedTuple<String>> oldest) {
+        if (oldest.isEmpty()) {
+            return;
+        }
+        String script = RAISE_SCRIPT.getScriptAsString();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Map.Entry<String, ZSetOperations.TypedTuple<String>> entry : oldest.entrySet()) {
+                ZSetOperations.TypedTuple<String> tuple = entry.getValue();
+                conn.eval(script, ReturnType.INTEGER, 1, FEED_HORIZON_KEY, entry.getKey(),
+                        String.valueOf(tuple.getScore().longValue()), tuple.getValue());
+            }
+            return null;
+        });
+    }
+
+    //这些key里最新的边界，比它早的笔记从数据库拉取；都没有裁剪过返回null，说明redis里就是全部笔记
+    //没裁剪过的key里比边界早的笔记也不能用，否则裁剪过的那一路裁掉的笔记就漏了
+    public ZSetOperations.TypedTuple<String> max(List<String> keys) {
+        List<Object> fields = new ArrayList<>(keys);
+        List<Object> values = stringRedisTemplate.opsForHash().multiGet(FEED_HORIZON_KEY, fields);
+        ZSetOperations.TypedTuple<String> horizon = null;
+        for (Object value : values) {
+            if (value == null) {
+                continue;
+            }
+            String text = value.toString();
+            int sep = text.indexOf(':');
+            ZSetOperations.TypedTuple<String> tuple =
+                    new DefaultTypedTuple<>(text.substring(sep + 1), Double.valueOf(text.substring(0, sep)));
+            if (horizon == null || tuple.getScore() > horizon.getScore()
+                    || (tuple.getScore().equals(horizon.getScore())
+                    && Long.parseLong(tuple.getValue()) > Long.parseLong(horizon.getValue()))) {
+                horizon = tuple;
+            }
+        }
+        return horizon;
+    }
+}
@@ -0,0 +1,151 @@
+package com.hmdp.utils;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.FEED_BIGV_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_KEY;
+
+/**
+ * 读取关注的笔记：自己的收件箱 + 关注的大V的发件箱，多路归并
+ * 排序和 ZREVRANGEBYSCORE 一致：分数(时间)倒序，分数相同按笔记id字符串倒序
+ * 收件箱、发件箱写满后会裁掉旧笔记，horizon 返回裁剪时记录的边界，更早的笔记由调用方从数据库拉取
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Component
+public class FeedReader {
+
+    //和redis倒序遍历的顺序一致
+    private static final Comparator<ZSetOperations.TypedTuple<String>> ORDER =
+            Comparator.<ZSetOperations.TypedTuple<String>>comparingDouble(ZSetOperations.TypedTuple::getScore)
+                    .thenComparing(ZSetOperations.TypedTuple::getValue)
+                    .reversed();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final FeedHorizon feedHorizon;
+
+    public FeedReader(StringRedisTemplate stringRedisTemplate, FeedHorizon feedHorizon) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.feedHorizon = feedHorizon;
+    }
+
+    //查询分数不大于max的笔记，跳过offset个，最多返回count个，和原来的滚动分页语义一致
+    public List<ZSetOperations.TypedTuple<String>> queryFeed(Long userId, long max, int offset, int count) {
+        return queryFeed(userId, max, 0, offset, count);
+    }
+
+    //同上，只查分数不小于min的，min之下的由调用方从数据库拉取
+    public List<ZSetOperations.TypedTuple<String>> queryFeed(Long userId, long max, double min, int offset, int count) {
+        //1.关注的大V SINTER follow:userId feed:bigv
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet().intersect(FOLLOW_KEY + userId, FEED_BIGV_KEY);
+        //2.没有关注大V，只查收件箱
+        if (bigAuthors == null || bigAuthors.isEmpty()) {
+            Set<ZSetOperations.TypedTuple<String>> tuples =
+                    stringRedisTemplate.opsForZSet().reverseRangeByScoreWithScores(FEED_KEY + userId, min, max, offset, count);
+            return tuples == null ? Collections.emptyList() : new ArrayList<>(tuples);
+        }
+        //3.收件箱和每个发件箱各取前 offset+count 个，一次管道查询
+        List<String> keys = sourceKeys(userId, bigAuthors);
+        List<Object> results = stringRedisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object execute(RedisOperations operations) throws DataAccessException {
+                for (String key : keys) {
+                    operations.opsForZSet().reverseRangeByScoreWithScores(key, min, max, 0, offset + count);
+                }
+                return null;
+            }
+        });
+        List<Collection<ZSetOperations.TypedTuple<String>>> sources = new ArrayList<>(results.size());
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            Collection<ZSetOperations.TypedTuple<String>> tuples = (Collection<ZSetOperations.TypedTuple<String>>) result;
+            sources.add(tuples == null ? Collections.emptyList() : tuples);
+        }
+        //4.多路归并
+        return merge(sources, offset, count);
+    }
+
+    //裁剪边界：收件箱和关注的大V的发件箱裁剪时记录的边界，取最新的，比它早的笔记可能已经被裁掉
+    //返回边界上的笔记id和分数，都没有裁剪过返回null，说明redis里就是全部笔记
+    public ZSetOperations.TypedTuple<String> horizon(Long userId) {
+        Set<String> bigAuthors = stringRedisTemplate.opsForSet().intersect(FOLLOW_KEY + userId, FEED_BIGV_KEY);
+        return feedHorizon.max(sourceKeys(userId, bigAuthors));
+    }
+
+    private static List<String> sourceKeys(Long userId, Set<String> bigAuthors) {
+        int size = bigAuthors == null ? 0 : bigAuthors.size();
+        List<String> keys = new ArrayList<>(size + 1);
+        keys.add(FEED_KEY + userId);
+        if (bigAuthors != null) {
+            for (String authorId : bigAuthors) {
+                keys.add(FEED_OUTBOX_KEY + authorId);
+            }
+        }
+        return keys;
+    }
+
+    //每一路都已经按照ORDER排好序，归并后去重，跳过offset个，取count个
+    public static List<ZSetOperations.TypedTuple<String>> merge(
+            List<? extends Collection<ZSetOperations.TypedTuple<String>>> sources, int offset, int count) {
+        //1.每一路的第一个元素放进堆里
+        PriorityQueue<Cursor> heap = new PriorityQueue<>(Math.max(1, sources.size()),
+                (a, b) -> ORDER.compare(a.head, b.head));
+        for (Collection<ZSetOperations.TypedTuple<String>> source : sources) {
+            Iterator<ZSetOperations.TypedTuple<String>> it = source.iterator();
+            if (it.hasNext()) {
+                heap.add(new Cursor(it.next(), it));
+            }
+        }
+        //2.依次取出最大的元素，同一篇笔记可能同时在收件箱和发件箱里，只保留一次
+        List<ZSetOperations.TypedTuple<String>> page = new ArrayList<>(count);
+        Set<String> seen = new HashSet<>();
+        int skipped = 0;
+        while (!heap.isEmpty() && page.size() < count) {
+            Cursor cursor = heap.poll();
+            ZSetOperations.TypedTuple<String> tuple = cursor.head;
+            if (cursor.it.hasNext()) {
+                cursor.head = cursor.it.next();
+                heap.add(cursor);
+            }
+            if (!seen.add(tuple.getValue())) {
+                continue;
+            }
+            if (skipped < offset) {
+                skipped++;
+                continue;
+            }
+            page.add(tuple);
+        }
+        return page;
+    }
+
+    private static class Cursor {
+        ZSetOperations.TypedTuple<String> head;
+        final Iterator<ZSetOperations.TypedTuple<String>> it;
+
+        Cursor(ZSetOperations.TypedTuple<String> head, Iterator<ZSetOperations.TypedTuple<String>> it) {
+            this.head = head;
+            this.it = it;
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Blog;
+import com.hmdp.mapper.BlogMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+import static com.hmdp.utils.RedisConstants.BLOG_HOT_KEY;
+import static com.hmdp.utils.RedisConstants.LOCK_BLOG_HOT_KEY;
+
+/**
+ * 热门笔记排行 blog:hot，分数 = 点赞数 + 发布时间加分
+ * 点赞时在 LikeBlog.lua 里 ZINCRBY，每晚从数据库重建一次，修正和数据库的偏差
+ * 时间加分：晚发布 gravityHours 小时相当于多一个赞，0 表示只按点赞数排
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Slf4j
+@Component
+public class HotBlogRanking {
+
+    //时间加分的起点 2022-01-01
+    private static final long HOT_EPOCH_SECONDS = 1640995200L;
+    //重建时每次从数据库读取的笔记数
+    private static final int LOAD_BATCH_SIZE = 1000;
+    //本地缓存的页数
+    private static final int PAGE_CACHE_CAPACITY = 100;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final BlogMapper blogMapper;
+
+    private final RedissonClient redissonClient;
+
+    //多少小时相当于一个赞，0表示不按时间加分
+    private final long gravityHours;
+
+    //页码 -> 这一页的笔记，只包含和当前用户无关的字段
+    private final LRUCache<Integer, List<Blog>> pageCache;
+
+    public HotBlogRanking(StringRedisTemplate stringRedisTemplate,
+                          BlogMapper blogMapper,
+                          RedissonClient redissonClient,
+                          @Value("${hmdp.blog.hot-gravity-hours:0}") long gravityHours,
+                          @Value("${hmdp.blog.hot-page-ttl:5000}") long pageTtl) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.blogMapper = blogMapper;
+        this.redissonClient = redissonClient;
+        this.gravityHours = gravityHours;
+        this.pageCache = CacheUtil.newLRUCache(PAGE_CACHE_CAPACITY, pageTtl);
+    }
+
+    @PostConstruct
+    private void init() {
+        //第一次启动时还没有排行，先建一次
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOG_HOT_KEY))) {
+            rebuild();
+        }
+    }
+
+    //新发布的笔记进入排行，分数只有时间加分
+    public void add(Blog blog) {
+        stringRedisTemplate.opsForZSet().add(BLOG_HOT_KEY, blog.getId().toString(), score(blog));
+    }
+
+    //查询一页，本地缓存几秒，过期后重新查redis和数据库
+    public List<Blog> page(int current, int pageSize, Function<List<Long>, List<Blog>> loader) {
+        if (current < 1) {
+            return Collections.emptyList();
+        }
+        List<Blog> blogs = pageCache.get(current);
+        if (blogs != null) {
+            return blogs;
+        }
+        //1.ZREVRANGE blog:hot start end
+        long start = (long) (current - 1) * pageSize;
+        Set<String> members = stringRedisTemplate.opsForZSet().reverseRange(BLOG_HOT_KEY, start, start + pageSize - 1);
+        if (members == null || members.isEmpty()) {
+            blogs = Collections.emptyList();
+        } else {
+            //2.按排行的顺序查询笔记
+            List<Long> ids = new ArrayList<>(members.size());
+            for (String member : members) {
+                ids.add(Long.valueOf(member));
+            }
+            blogs = Collections.unmodifiableList(loader.apply(ids));
+        }
+        pageCache.put(current, blogs);
+        return blogs;
+    }
+
+    //每天凌晨从数据库重建，写到临时key再改名，重建期间照常读取旧的排行
+    @Scheduled(cron = "0 0 3 * * ?")
+    public void rebuild() {
+        RLock lock = redissonClient.getLock(LOCK_BLOG_HOT_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            String tmpKey = BLOG_HOT_KEY + ":tmp";
+            stringRedisTemplate.delete(tmpKey);
+            //1.按id分批读取，管道写入临时key
+            long lastId = 0;
+            long total = 0;
+            while (true) {
+                List<Blog> blogs = blogMapper.selectList(new QueryWrapper<Blog>()
+                        .select("id", "liked", "create_time")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + LOAD_BATCH_SIZE));
+                if (blogs.isEmpty()) {
+                    break;
+                }
+                stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                    StringRedisConnection conn = (StringRedisConnection) connection;
+                    for (Blog blog : blogs) {
+                        conn.zAdd(tmpKey, score(blog), blog.getId().toString());
+                    }
+                    return null;
+                });
+                lastId = blogs.get(blogs.size() - 1).getId();
+                total += blogs.size();
+                if (blogs.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+            }
+            //2.替换旧的排行
+            if (total > 0) {
+                stringRedisTemplate.rename(tmpKey, BLOG_HOT_KEY);
+            }
+            pageCache.clear();
+            log.info("热门笔记排行重建完成，blogs={}", total);
+        } catch (Exception e) {
+            log.error("热门笔记排行重建失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private double score(Blog blog) {
+        double score = blog.getLiked() == null ? 0 : blog.getLiked();
+        if (gravityHours <= 0) {
+            return score;
+        }
+        LocalDateTime createTime = blog.getCreateTime() == null ? LocalDateTime.now() : blog.getCreateTime();
+        long seconds = createTime.atZone(ZoneId.systemDefault()).toEpochSecond() - HOT_EPOCH_SECONDS;
+        return score + (double) seconds / (gravityHours * 3600);
+    }
+}
@@ -0,0 +1,154 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import com.hmdp.mapper.BlogMapper;
+import com.hmdp.mapper.ShopMapper;
+import com.hmdp.mapper.UserMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+
+/**
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Slf4j
+@Component
+public class IdBloomFilter {
+
+    public static final String TB_SHOP = "tb_shop";
+    public static final String TB_USER = "tb_user";
+    public static final String TB_BLOG = "tb_blog";
+
+    //误判率
+    private static final double FPP = 0.01;
+    //预留的增长空间，避免新增数据后误判率上升太快
+    private static final long EXTRA_INSERTIONS = 10000;
+    //每次从数据库读取的id数量
+    private static final int LOAD_BATCH_SIZE = 5000;
+
+    //表名 -> mapper
+    private final Map<String, BaseMapper<?>> mappers = new HashMap<>();
+    //表名 -> 正在使用的过滤器
+    private final Map<String, BloomFilter> filters = new ConcurrentHashMap<>();
+    //表名 -> 正在重建的过滤器，重建期间新增的id也要写进去
+    private final Map<String, BloomFilter> building = new ConcurrentHashMap<>();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    public IdBloomFilter(ShopMapper shopMapper, UserMapper userMapper, BlogMapper blogMapper,
+                         StringRedisTemplate stringRedisTemplate,
+                         RedisMessageListenerContainer listenerContainer) {
+        mappers.put(TB_SHOP, shopMapper);
+        mappers.put(TB_USER, userMapper);
+        mappers.put(TB_BLOG, blogMapper);
+        this.stringRedisTemplate = stringRedisTemplate;
+        //订阅新增id，其他节点新增数据时也写入本节点的过滤器，消息格式 表名:id
+        listenerContainer.addMessageListener((message, pattern) -> {
+            String body = new String(message.getBody(), StandardCharsets.UTF_8);
+            int index = body.lastIndexOf(':');
+            addLocal(body.substring(0, index), Long.valueOf(body.substring(index + 1)));
+        }, new ChannelTopic(BLOOM_ADD_CHANNEL));
+    }
+
+    //判断id是否可能存在，过滤器还没建好时一律放行
+    public boolean mightContain(String table, Long id) {
+        if (id == null) {
+            return false;
+        }
+        BloomFilter filter = filters.get(table);
+        return filter == null || filter.mightContain(id);
+    }
+
+    //新增数据后写入过滤器，并通知其他节点
+    public void add(String table, Long id) {
+        if (id == null) {
+            return;
+        }
+        addLocal(table, id);
+        stringRedisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, table + ":" + id);
+    }
+
+    //和重建时的替换互斥，id要么写进正在重建的过滤器，要么写进替换后的过滤器
+    private synchronized void addLocal(String table, Long id) {
+        BloomFilter filter = filters.get(table);
+        if (filter != null) {
+            filter.put(id);
+        }
+        BloomFilter next = building.get(table);
+        if (next != null) {
+            next.put(id);
+        }
+    }
+
+    //当前过滤器估算的误判率，过滤器不存在返回1
+    public double expectedFpp(String table) {
+        BloomFilter filter = filters.get(table);
+        return filter == null ? 1.0 : filter.expectedFpp();
+    }
+
+    //启动时构建，之后定期重建，清掉已经删除的id
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.bloom.rebuild-interval:3600000}")
+    public void rebuildAll() {
+        for (String table : mappers.keySet()) {
+            try {
+                rebuild(table);
+            } catch (Exception e) {
+                log.error("重建布隆过滤器失败，table={}", table, e);
+            }
+        }
+    }
+
+    public void rebuild(String table) {
+        BaseMapper<?> mapper = mappers.get(table);
+        //1.按照当前数据量创建新的过滤器
+        int count = mapper.selectCount(null);
+        BloomFilter filter = new BloomFilter(count * 2L + EXTRA_INSERTIONS, FPP);
+        building.put(table, filter);
+        try {
+            //2.分批读取id写入
+            long total = loadIds(mapper, filter);
+            //3.替换旧的过滤器
+            synchronized (this) {
+                filters.put(table, filter);
+                building.remove(table, filter);
+            }
+            log.info("布隆过滤器重建完成，table={}，ids={}，预估误判率={}", table, total, filter.expectedFpp());
+        } finally {
+            building.remove(table, filter);
+        }
+    }
+
+    //按id顺序分批读取，避免一次把整张表读进内存
+    private <T> long loadIds(BaseMapper<T> mapper, BloomFilter filter) {
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            List<Object> ids = mapper.selectObjs(new QueryWrapper<T>()
+                    .select("id")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + LOAD_BATCH_SIZE));
+            for (Object id : ids) {
+                lastId = ((Number) id).longValue();
+                filter.put(lastId);
+            }
+            total += ids.size();
+            if (ids.size() < LOAD_BATCH_SIZE) {
+                return total;
+            }
+        }
+    }
+}
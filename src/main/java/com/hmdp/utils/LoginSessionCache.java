@@ -0,0 +1,101 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import cn.hutool.core.bean.BeanUtil;
+import com.hmdp.dto.UserDTO;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_REVOKE_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 登录token的本地缓存，命中时不访问redis，token有效期按间隔刷新
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Component
+public class LoginSessionCache {
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //token -> 登录用户
+    private final LRUCache<String, Session> localCache;
+
+    //同一个token两次刷新有效期的最小间隔
+    private final long refreshInterval;
+
+    public LoginSessionCache(StringRedisTemplate stringRedisTemplate,
+                             RedisMessageListenerContainer listenerContainer,
+                             @Value("${hmdp.login.local-ttl:300000}") long localTtl,
+                             @Value("${hmdp.login.refresh-interval:60000}") long refreshInterval) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.localCache = CacheUtil.newLRUCache(SystemConstants.LOGIN_CACHE_CAPACITY, localTtl);
+        this.refreshInterval = refreshInterval;
+        //订阅登出频道，任意节点登出或强制下线时清掉本地缓存
+        listenerContainer.addMessageListener(
+                (message, pattern) -> localCache.remove(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(LOGIN_REVOKE_CHANNEL));
+    }
+
+    //根据token查询登录用户，不存在返回null
+    public UserDTO get(String token) {
+        String tokenKey = LOGIN_USER_KEY + token;
+        long now = System.currentTimeMillis();
+        //1.查询本地缓存
+        Session session = localCache.get(token, false);
+        if (session != null) {
+            //1.1 距离上次刷新超过间隔才刷新有效期
+            if (now - session.lastRefresh >= refreshInterval) {
+                session.lastRefresh = now;
+                Boolean exists = stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+                //1.2 redis里已经没有了，说明已经过期
+                if (!Boolean.TRUE.equals(exists)) {
+                    localCache.remove(token);
+                    return null;
+                }
+            }
+            return session.user;
+        }
+        //2.本地未命中，基于token获取redis用户
+        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(tokenKey);
+        //3.判断用户是否存在
+        if (userMap.isEmpty()) {
+            return null;
+        }
+        //4.将查询到的Hash数据转化为userDTO
+        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+        //5.刷新token的有效期，并写入本地缓存
+        stringRedisTemplate.expire(tokenKey, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        localCache.put(token, new Session(userDTO, now));
+        return userDTO;
+    }
+
+    //登出或强制下线：删除token，并通知所有节点清除本地缓存
+    public void invalidate(String token) {
+        stringRedisTemplate.delete(LOGIN_USER_KEY + token);
+        localCache.remove(token);
+        stringRedisTemplate.convertAndSend(LOGIN_REVOKE_CHANNEL, token);
+    }
+
+    private static class Session {
+        final UserDTO user;
+        //上次刷新redis有效期的时间
+        volatile long lastRefresh;
+
+        Session(UserDTO user, long lastRefresh) {
+            this.user = user;
+            this.lastRefresh = lastRefresh;
+        }
+    }
+}
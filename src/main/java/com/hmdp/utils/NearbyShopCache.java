@@ -0,0 +1,183 @@
+package com.hmdp.utils;
+
+import cn.hutool.cache.CacheUtil;
+import cn.hutool.cache.impl.LRUCache;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResult;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 附近商铺的本地缓存：坐标按网格量化，同一个(类型, 网格)只查一次GEOSEARCH，缓存最近的N个商铺和坐标
+ * 每次请求用自己的精确坐标重新计算距离、排序，翻页直接截取，不再每页都查redis
+ * 查询半径多加一个网格的边长，网格里任何一点的半径范围都在缓存里
+ * 每个网格最多缓存离中心最近的 maxResults 个，缓存被截断时，只有离请求坐标足够近的一段是完整的：
+ * 这一段不够当前页时，直接用请求坐标查一次GEOSEARCH，不走缓存，所以翻页没有上限
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Component
+public class NearbyShopCache {
+
+    //和redis计算距离用的地球半径一致
+    public static final double EARTH_RADIUS = 6372797.560856;
+    //每一度纬度对应的米数
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS;
+    //缓存的网格数
+    private static final int CELL_CACHE_CAPACITY = 10000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //网格边长(度)
+    private final double cellSize;
+
+    //每个网格最多缓存的商铺数
+    private final int maxResults;
+
+    //类型:网格 -> 网格中心附近的商铺
+    private final LRUCache<String, CellShops> cellCache;
+
+    public NearbyShopCache(StringRedisTemplate stringRedisTemplate,
+                           @Value("${hmdp.shop.geo-cell-size:0.005}") double cellSize,
+                           @Value("${hmdp.shop.geo-max-results:200}") int maxResults,
+                           @Value("${hmdp.shop.geo-cache-ttl:30000}") long cacheTtl) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.cellSize = cellSize;
+        this.maxResults = maxResults;
+        this.cellCache = CacheUtil.newLRUCache(CELL_CACHE_CAPACITY, cacheTtl);
+    }
+
+    //查询半径内离得最近的商铺，按距离从近到远，至少包含前limit个(不够limit个就是全部)
+    public List<ShopDistance> search(Integer typeId, double x, double y, double radius, int limit) {
+        //1.查询所在网格的候选商铺
+        long cellX = (long) Math.floor(x / cellSize);
+        long cellY = (long) Math.floor(y / cellSize);
+        double centerX = (cellX + 0.5) * cellSize;
+        double centerY = (cellY + 0.5) * cellSize;
+        String cellKey = typeId + ":" + cellX + ":" + cellY + ":" + (long) radius;
+        CellShops cell = cellCache.get(cellKey);
+        if (cell == null) {
+            cell = load(typeId, centerX, centerY, radius);
+            cellCache.put(cellKey, cell);
+        }
+        //2.缓存的是离中心最近的一批，离请求坐标 covered 米以内的商铺一个不漏
+        double covered = cell.coveredRadius - distance(x, y, centerX, centerY);
+        //3.按请求的精确坐标计算距离，过滤、排序
+        List<ShopDistance> result = new ArrayList<>(cell.candidates.size());
+        int complete = 0;
+        for (Candidate candidate : cell.candidates) {
+            double distance = distance(x, y, candidate.x, candidate.y);
+            if (distance <= radius) {
+                result.add(new ShopDistance(candidate.id, distance));
+                if (distance <= covered) {
+                    complete++;
+                }
+            }
+        }
+        result.sort(Comparator.comparingDouble(ShopDistance::getDistance));
+        //4.完整的一段不够limit个，而且半径范围没有被完整覆盖，直接查一次
+        if (complete < limit && covered < radius) {
+            return query(typeId, x, y, radius, limit);
+        }
+        return result;
+    }
+
+    //GEOSEARCH shop:geo:typeId FROMLONLAT x y BYRADIUS r m ASC COUNT limit WITHDIST，不缓存
+    private List<ShopDistance> query(Integer typeId, double x, double y, double radius, int limit) {
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(x, y),
+                new Distance(radius),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending().limit(limit)
+        );
+        if (results == null) {
+            return Collections.emptyList();
+        }
+        List<ShopDistance> shops = new ArrayList<>(results.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results) {
+            shops.add(new ShopDistance(Long.valueOf(result.getContent().getName()), result.getDistance().getValue()));
+        }
+        return shops;
+    }
+
+    //GEOSEARCH shop:geo:typeId FROMLONLAT cx cy BYRADIUS r+边长 m ASC COUNT n WITHCOORD
+    private CellShops load(Integer typeId, double centerX, double centerY, double radius) {
+        double margin = cellSize * METERS_PER_DEGREE;
+        GeoResults<RedisGeoCommands.GeoLocation<String>> results = stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + typeId,
+                GeoReference.fromCoordinate(centerX, centerY),
+                new Distance(radius + margin),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeCoordinates().sortAscending().limit(maxResults)
+        );
+        if (results == null) {
+            return new CellShops(Collections.emptyList(), radius + margin);
+        }
+        List<Candidate> candidates = new ArrayList<>(results.getContent().size());
+        for (GeoResult<RedisGeoCommands.GeoLocation<String>> result : results) {
+            Point point = result.getContent().getPoint();
+            candidates.add(new Candidate(Long.parseLong(result.getContent().getName()), point.getX(), point.getY()));
+        }
+        //没有被截断时整个范围都是完整的，被截断时只到最远一个的距离，再远的可能没查出来
+        double coveredRadius = radius + margin;
+        if (candidates.size() >= maxResults) {
+            Candidate last = candidates.get(candidates.size() - 1);
+            coveredRadius = Math.min(coveredRadius, distance(centerX, centerY, last.x, last.y));
+        }
+        return new CellShops(candidates, coveredRadius);
+    }
+
+    //两点之间的球面距离(米)，和redis GEODIST 的算法一致
+    public static double distance(double x1, double y1, double x2, double y2) {
+        double lat1 = Math.toRadians(y1);
+        double lat2 = Math.toRadians(y2);
+        double u = Math.sin((lat2 - lat1) / 2);
+        double v = Math.sin(Math.toRadians(x2 - x1) / 2);
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1) * Math.cos(lat2) * v * v));
+    }
+
+    private static class CellShops {
+        final List<Candidate> candidates;
+        //离网格中心这个距离(米)以内的商铺都在candidates里
+        final double coveredRadius;
+
+        CellShops(List<Candidate> candidates, double coveredRadius) {
+            this.candidates = candidates;
+            this.coveredRadius = coveredRadius;
+        }
+    }
+
+    private static class Candidate {
+        final long id;
+        final double x;
+        final double y;
+
+        Candidate(long id, double x, double y) {
+            this.id = id;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    //商铺id和距离(米)
+    @Data
+    @AllArgsConstructor
+    public static class ShopDistance {
+        private Long id;
+        private Double distance;
+    }
+}
@@ -5,19 +5,54 @@ public class RedisConstants {
     public static final Long LOGIN_CODE_TTL = 2L;
     public static final String LOGIN_USER_KEY = "login:token:";
     public static final Long LOGIN_USER_TTL = 36000L;
+    public static final String LOGIN_REVOKE_CHANNEL = "login:revoke";
+    public static final String LOGIN_DENY_KEY = "login:deny";
+    public static final String LOGIN_DENY_CHANNEL = "login:deny";
 
     public static final Long CACHE_NULL_TTL = 2L;
 
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOPTYPE_KEY = "cache:shopType:";
+    public static final String SHOP_TYPE_VERSION_KEY = CACHE_SHOPTYPE_KEY + "version";
+    public static final String SHOP_TYPE_CHANNEL = "shop:type:update";
+    public static final Long CACHE_USER_TTL = 30L;
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add";
 
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String LOCK_FEED_COMPACT_KEY = "lock:feed:compact";
+    public static final String LOCK_BLOG_HOT_KEY = "lock:blog:hot";
+    public static final String LOCK_SHOP_GEO_KEY = "lock:geo:sync";
 
     public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_ID_KEY = "seckill:ids:";
+    public static final Long SECKILL_ID_TTL = 1L;
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_AVAILABLE_CHANNEL = "seckill:available";
+    public static final String SECKILL_ORDER_STREAM = "stream.orders";
+    public static final String SECKILL_ORDER_STREAMS_KEY = "seckill:streams";
+    public static final String SECKILL_ORDER_DLQ_STREAM = "stream.orders.dlq";
+    public static final String SECKILL_ORDER_GROUP = "g1";
     public static final String BLOG_LIKED_KEY = "blog:liked:";
+    public static final String BLOG_LIKE_DELTA_KEY = "blog:like:delta";
+    public static final String BLOG_LIKE_FLUSHING_KEY = "blog:like:flushing";
+    public static final String BLOG_LIKE_FLUSHING_BATCH_KEY = "blog:like:flushing:batch";
+    public static final String BLOG_HOT_KEY = "blog:hot";
     public static final String FEED_KEY = "feed:";
+    public static final String FEED_STREAM = "stream.feed";
+    public static final String FEED_GROUP = "g1";
+    public static final String FEED_PROGRESS_KEY = "feed:progress";
+    public static final String FEED_HORIZON_KEY = "feed:horizon";
+    public static final String FEED_OUTBOX_KEY = "feed:outbox:";
+    public static final String FEED_BIGV_KEY = "feed:bigv";
+    public static final String FOLLOW_KEY = "follow:";
     public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_CHANNEL = "shop:geo:update";
+    public static final String SHOP_NAME_CHANNEL = "shop:name:update";
     public static final String USER_SIGN_KEY = "sign:";
 }
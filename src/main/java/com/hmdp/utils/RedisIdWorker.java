@@ -1,27 +1,64 @@
 package com.hmdp.utils;
 
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * 作者:灰爪哇
  * 时间:2023-02-01
  */
+@Slf4j
 @Component
 public class RedisIdWorker {
     //开始得时间戳
     private static final long BEGIN_TIMESTAMP = 1640995200L;
     //序列号得位数
     private static final int COUNT_BITS = 32;
+    //日期格式，只创建一次
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
+    //号段用到80%时预取下一段
+    private static final double PREFETCH_RATIO = 0.8;
+
+    //预取号段的线程
+    private static final ExecutorService SEGMENT_LOADER = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
 
     private StringRedisTemplate stringRedisTemplate;
 
+    //号段长度，0表示不用号段，每次都INCR
+    private final int segmentSize;
+
+    //业务前缀 -> 号段
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    //缓存当天的日期字符串，跨天才重新格式化
+    private volatile DateKey dateKey = new DateKey(-1, null);
+
     public RedisIdWorker(StringRedisTemplate stringRedisTemplate) {
+        this(stringRedisTemplate, 0);
+    }
+
+    @Autowired
+    public RedisIdWorker(StringRedisTemplate stringRedisTemplate,
+                         @Value("${hmdp.id.segment-size:0}") int segmentSize) {
         this.stringRedisTemplate = stringRedisTemplate;
+        this.segmentSize = Math.max(0, segmentSize);
     }
 
     public long nextId(String keyPrefix){
@@ -32,11 +69,131 @@ public class RedisIdWorker {
 
         //2.生成序列号
         //2.1 获取当前日期，精确到天
-        String date = now.format(DateTimeFormatter.ofPattern("yyyy:MM:dd"));
-        //2.2 自增长
-        Long count = stringRedisTemplate.opsForValue().increment("icr" + keyPrefix + ":" + date);
+        String date = dateOf(now);
+        //2.2 自增长，开启号段时从本地号段里取
+        long count = segmentSize > 0
+                ? nextFromSegment(keyPrefix, date)
+                : stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, date));
 
         //3.拼接返回
         return timestamp << COUNT_BITS | count;
     }
+
+    //一次生成n个id，只INCRBY一次，同一秒内的序列号连续，和nextId生成的不会重复
+    public long[] nextIds(String keyPrefix, int n){
+        LocalDateTime now = LocalDateTime.now();
+        long timestamp = now.toEpochSecond(ZoneOffset.UTC) - BEGIN_TIMESTAMP;
+        long end = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, dateOf(now)), n);
+        long[] ids = new long[n];
+        for (int i = 0; i < n; i++) {
+            ids[i] = timestamp << COUNT_BITS | (end - n + 1 + i);
+        }
+        return ids;
+    }
+
+    private String dateOf(LocalDateTime now) {
+        long epochDay = now.toLocalDate().toEpochDay();
+        DateKey key = dateKey;
+        if (key.epochDay != epochDay) {
+            key = new DateKey(epochDay, now.format(DATE_FORMATTER));
+            dateKey = key;
+        }
+        return key.date;
+    }
+
+    private long nextFromSegment(String keyPrefix, String date) {
+        SegmentBuffer buffer = buffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            Segment segment = buffer.current;
+            //1.跨天或者第一次使用，同步申请号段
+            if (segment == null || !segment.date.equals(date)) {
+                synchronized (buffer) {
+                    if (buffer.current == segment) {
+                        buffer.current = loadSegment(keyPrefix, date);
+                    }
+                }
+                continue;
+            }
+            //2.从当前号段取号
+            long value = segment.cursor.getAndIncrement();
+            if (value <= segment.end) {
+                //2.1 用到80%，异步预取下一段
+                if (value == segment.prefetchAt) {
+                    prefetch(segment, keyPrefix, date);
+                }
+                return value;
+            }
+            //3.当前号段用完，切换到预取好的号段，预取失败就同步申请
+            synchronized (buffer) {
+                if (buffer.current == segment) {
+                    buffer.current = takeNext(segment, keyPrefix, date);
+                }
+            }
+        }
+    }
+
+    private void prefetch(Segment segment, String keyPrefix, String date) {
+        SEGMENT_LOADER.execute(() -> {
+            try {
+                segment.next.complete(loadSegment(keyPrefix, date));
+            } catch (Exception e) {
+                segment.next.completeExceptionally(e);
+            }
+        });
+    }
+
+    //取号到80%时一定已经提交了预取，这里等它完成，避免重复申请号段
+    private Segment takeNext(Segment segment, String keyPrefix, String date) {
+        try {
+            Segment loaded = segment.next.join();
+            if (loaded.date.equals(date)) {
+                return loaded;
+            }
+        } catch (Exception e) {
+            log.error("预取号段失败，prefix={}", keyPrefix, e);
+        }
+        return loadSegment(keyPrefix, date);
+    }
+
+    //INCRBY一次申请segmentSize个序列号，和逐个INCR用的是同一个key，两种模式可以混用
+    private Segment loadSegment(String keyPrefix, String date) {
+        Long end = stringRedisTemplate.opsForValue().increment(counterKey(keyPrefix, date), segmentSize);
+        return new Segment(date, end - segmentSize + 1, end);
+    }
+
+    private static String counterKey(String keyPrefix, String date) {
+        return "icr" + keyPrefix + ":" + date;
+    }
+
+    //一段连续的序列号 [start, end]
+    private static class Segment {
+        final String date;
+        final long end;
+        final long prefetchAt;
+        final AtomicLong cursor;
+        //预取的下一段
+        final CompletableFuture<Segment> next = new CompletableFuture<>();
+
+        Segment(String date, long start, long end) {
+            this.date = date;
+            this.end = end;
+            this.prefetchAt = start + (long) ((end - start + 1) * PREFETCH_RATIO);
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    //每个业务前缀正在使用的号段
+    private static class SegmentBuffer {
+        volatile Segment current;
+    }
+
+    private static class DateKey {
+        final long epochDay;
+        final String date;
+
+        DateKey(long epochDay, String date) {
+            this.epochDay = epochDay;
+            this.date = date;
+        }
+    }
 }
@@ -1,18 +1,11 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.HandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
-
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
 
 /**
  * 作者:灰爪哇
@@ -21,10 +14,13 @@ import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
 public class RefreshTokenInterceptor implements HandlerInterceptor {
 
     //因为这个不是spring管理的类，所以没有使用autowire自动录入
-   private StringRedisTemplate stringRedisTemplate;
+   private LoginSessionCache loginSessionCache;
+
+   private SignedTokens signedTokens;
 
-   public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate){
-       this.stringRedisTemplate = stringRedisTemplate;
+   public RefreshTokenInterceptor(LoginSessionCache loginSessionCache, SignedTokens signedTokens){
+       this.loginSessionCache = loginSessionCache;
+       this.signedTokens = signedTokens;
    }
 
     @Override
@@ -40,20 +36,19 @@ public class RefreshTokenInterceptor implements HandlerInterceptor {
         if (StrUtil.isBlank(token)) {
             return true;
         }
-        //2.基于token获取redis用户
-        String tokenKey = LOGIN_USER_KEY + token;
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(tokenKey);
+        //2.基于token获取用户
+        //2.1 签名token在本地校验签名和有效期
+        //2.2 redis会话先查本地缓存，有效期按间隔刷新
+        UserDTO userDTO = signedTokens.isEnabled()
+                ? signedTokens.verify(token)
+                : loginSessionCache.get(token);
         //3.判断用户是否存在
-        if (userMap.isEmpty()) {
+        if (userDTO == null) {
             return true;
         }
-        //4.将查询到的Hash数据转化为userDTO
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
-        //5.存在就把数据保存到ThreadLocal中
+        //4.存在就把数据保存到ThreadLocal中
         UserHolder.saveUser(userDTO);
-        //6.刷新token的有效期
-        stringRedisTemplate.expire(tokenKey,LOGIN_USER_TTL, TimeUnit.MINUTES);
-        //7.放行
+        //5.放行
         return true;
 
        //1.获取session
@@ -0,0 +1,293 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ID_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ID_TTL;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_GROUP;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAM;
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_STREAMS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_SHARDS_KEY;
+import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
+
+/**
+ * 秒杀库存，热点券可以把库存拆到多个分片上
+ * 分片key：seckill:stock:{voucherId:shard}、seckill:order:{voucherId:shard}、stream.orders:{voucherId:shard}
+ * 同一分片的key带相同的hash tag，在同一个slot，redis集群下扣库存和发送订单消息也能在一个脚本里完成
+ * 用户按id固定路由到一个分片，一人一单只需要检查这个分片
+ * 分片的订单队列登记在 seckill:streams，订单消费者读取 stream.orders 和登记的所有分片队列
+ * 订单id预先生成一批放在 seckill:ids:{voucherId:shard}，脚本通过校验后才取一个，重复下单和库存不足不消耗id
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Slf4j
+@Component
+public class SeckillStock {
+
+    //deduct没有抢到时的返回值，抢到时返回的订单id都是正数
+    public static final long SOLD_OUT = -1;
+    public static final long DUPLICATE = -2;
+
+    //脚本的返回码
+    private static final long OK = 0;
+    private static final long NO_STOCK = 1;
+    private static final long NO_ID = 3;
+    //订单id用完时一次补充的数量
+    private static final int ID_BATCH_SIZE = 100;
+
+    //校验一人一单、扣减库存、取订单id并发送订单消息，分片和不分片共用，只是key不同
+    private static final DefaultRedisScript<List> SECKILL_SCRIPT;
+    //退回库存
+    private static final DefaultRedisScript<Long> ROLLBACK_SCRIPT;
+    //从其他分片调拨库存
+    private static final DefaultRedisScript<Long> STOCK_TAKE_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("Seckill.lua"));
+        SECKILL_SCRIPT.setResultType(List.class);
+        ROLLBACK_SCRIPT = new DefaultRedisScript<>();
+        ROLLBACK_SCRIPT.setLocation(new ClassPathResource("SeckillRollback.lua"));
+        ROLLBACK_SCRIPT.setResultType(Long.class);
+        STOCK_TAKE_SCRIPT = new DefaultRedisScript<>();
+        STOCK_TAKE_SCRIPT.setLocation(new ClassPathResource("StockTake.lua"));
+        STOCK_TAKE_SCRIPT.setResultType(Long.class);
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final RedisIdWorker redisIdWorker;
+
+    //新建秒杀券时默认的分片数，1表示不分片
+    private final int defaultShards;
+
+    //优惠券id -> 分片数，券创建后分片数不再变化
+    private final Map<Long, Integer> shardsCache = new ConcurrentHashMap<>();
+
+    public SeckillStock(StringRedisTemplate stringRedisTemplate,
+                        RedisIdWorker redisIdWorker,
+                        @Value("${hmdp.seckill.stock-shards:1}") int defaultShards) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.redisIdWorker = redisIdWorker;
+        this.defaultShards = Math.max(1, defaultShards);
+    }
+
+    public void init(Long voucherId, int stock) {
+        init(voucherId, stock, defaultShards);
+    }
+
+    //保存库存，分片时平均分到每个分片，余数给前面的分片
+    public void init(Long voucherId, int stock, int shards) {
+        if (shards <= 1) {
+            stringRedisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucherId, String.valueOf(stock));
+            shardsCache.put(voucherId, 1);
+            return;
+        }
+        //集群模式下各分片在不同slot，逐个写入
+        for (int i = 0; i < shards; i++) {
+            int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+            stringRedisTemplate.opsForValue().set(stockKey(voucherId, i), String.valueOf(shardStock));
+        }
+        stringRedisTemplate.opsForValue().set(SECKILL_SHARDS_KEY + voucherId, String.valueOf(shards));
+        shardsCache.put(voucherId, shards);
+        //每个分片的订单队列，先建好消费者组再登记，消费者读到的队列一定有组
+        String[] streams = new String[shards];
+        for (int i = 0; i < shards; i++) {
+            streams[i] = streamKey(voucherId, i);
+            createGroup(streams[i]);
+        }
+        stringRedisTemplate.opsForSet().add(SECKILL_ORDER_STREAMS_KEY, streams);
+    }
+
+    //XGROUP CREATE stream g1 0 MKSTREAM，队列不存在时一起创建
+    public void createGroup(String stream) {
+        try {
+            stringRedisTemplate.opsForStream().createGroup(stream, ReadOffset.from("0"), SECKILL_ORDER_GROUP);
+        } catch (Exception e) {
+            //BUSYGROUP，消费者组已经存在
+            log.debug("消费者组已存在，stream={}", stream);
+        }
+    }
+
+    //所有订单队列：不分片的 stream.orders，加上登记的分片队列
+    public List<String> orderStreams() {
+        Set<String> shardStreams = stringRedisTemplate.opsForSet().members(SECKILL_ORDER_STREAMS_KEY);
+        List<String> streams = new ArrayList<>(1 + (shardStreams == null ? 0 : shardStreams.size()));
+        streams.add(SECKILL_ORDER_STREAM);
+        if (shardStreams != null) {
+            streams.addAll(shardStreams);
+        }
+        return streams;
+    }
+
+    //分片队列已经消费完、优惠券所有分片都没有库存时取消登记，消费者不再轮询它
+    //取消后再确认一次库存，期间有库存退回就重新登记
+    public boolean retireStream(String stream) {
+        Long voucherId = voucherOfStream(stream);
+        if (voucherId == null || hasStock(voucherId)) {
+            return false;
+        }
+        stringRedisTemplate.opsForSet().remove(SECKILL_ORDER_STREAMS_KEY, stream);
+        if (hasStock(voucherId)) {
+            stringRedisTemplate.opsForSet().add(SECKILL_ORDER_STREAMS_KEY, stream);
+            return false;
+        }
+        return true;
+    }
+
+    private boolean hasStock(Long voucherId) {
+        int shards = shardsOf(voucherId);
+        for (int i = 0; i < shards; i++) {
+            String stock = stringRedisTemplate.opsForValue().get(stockKey(voucherId, i, shards));
+            if (stock != null && Long.parseLong(stock) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public int shardsOf(Long voucherId) {
+        return shardsCache.computeIfAbsent(voucherId, id -> {
+            String shards = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + id);
+            return shards == null ? 1 : Integer.parseInt(shards);
+        });
+    }
+
+    //扣减库存、记录下单用户并发送订单消息，返回订单id，没抢到返回 SOLD_OUT/DUPLICATE
+    public long deduct(Long voucherId, Long userId) {
+        //1.按用户id路由到分片，不分片时只有一个
+        int shards = shardsOf(voucherId);
+        int shard = shardOf(userId, shards);
+        String idKey = idKey(voucherId, shard, shards);
+        while (true) {
+            //2.校验一人一单，扣减库存，取订单id，XADD 这个分片的订单队列
+            List<?> result = stringRedisTemplate.execute(
+                    SECKILL_SCRIPT,
+                    Arrays.asList(stockKey(voucherId, shard, shards), orderKey(voucherId, shard, shards),
+                            streamKey(voucherId, shard, shards), idKey),
+                    userId.toString(), voucherId.toString()
+            );
+            long r = result == null || result.isEmpty() ? NO_STOCK : ((Number) result.get(0)).longValue();
+            if (r == OK) {
+                return Long.parseLong(String.valueOf(result.get(1)));
+            }
+            //3.订单id用完，补充一批后重试
+            if (r == NO_ID) {
+                refillIds(idKey);
+                continue;
+            }
+            if (r != NO_STOCK) {
+                return DUPLICATE;
+            }
+            //4.分片库存用完，从其他分片调拨后重试，都没有库存才算卖完
+            if (shards <= 1 || !rebalance(voucherId, shard, shards)) {
+                return SOLD_OUT;
+            }
+        }
+    }
+
+    //生成一批订单id放进分片的id列表，并发补充时列表里会多一些，不会重复
+    //优惠券下线后剩下的id随key过期
+    private void refillIds(String idKey) {
+        long[] ids = redisIdWorker.nextIds("order", ID_BATCH_SIZE);
+        String[] values = new String[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            values[i] = String.valueOf(ids[i]);
+        }
+        stringRedisTemplate.opsForList().rightPushAll(idKey, values);
+        stringRedisTemplate.expire(idKey, SECKILL_ID_TTL, TimeUnit.DAYS);
+    }
+
+    //订单最终没有创建，退回库存和下单记录；用户不在已下单集合里说明已经退过，返回false
+    public boolean rollback(Long voucherId, Long userId) {
+        int shards = shardsOf(voucherId);
+        int shard = shardOf(userId, shards);
+        Long returned = stringRedisTemplate.execute(
+                ROLLBACK_SCRIPT,
+                Arrays.asList(stockKey(voucherId, shard, shards), orderKey(voucherId, shard, shards)),
+                userId.toString()
+        );
+        if (returned == null || returned <= 0) {
+            return false;
+        }
+        //分片队列可能已经取消登记，有库存了重新登记，这个分片再下单时消费者能读到
+        if (shards > 1) {
+            stringRedisTemplate.opsForSet().add(SECKILL_ORDER_STREAMS_KEY, streamKey(voucherId, shard));
+        }
+        return true;
+    }
+
+    //从后面的分片依次找有库存的，调一半过来
+    private boolean rebalance(Long voucherId, int shard, int shards) {
+        for (int i = 1; i < shards; i++) {
+            int donor = (shard + i) % shards;
+            Long taken = stringRedisTemplate.execute(
+                    STOCK_TAKE_SCRIPT,
+                    Collections.singletonList(stockKey(voucherId, donor))
+            );
+            if (taken != null && taken > 0) {
+                stringRedisTemplate.opsForValue().increment(stockKey(voucherId, shard), taken);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int shardOf(Long userId, int shards) {
+        return shards <= 1 ? 0 : Math.floorMod(Long.hashCode(userId), shards);
+    }
+
+    private static String stockKey(Long voucherId, int shard, int shards) {
+        return shards <= 1 ? SECKILL_STOCK_KEY + voucherId : stockKey(voucherId, shard);
+    }
+
+    private static String orderKey(Long voucherId, int shard, int shards) {
+        return shards <= 1 ? SECKILL_ORDER_KEY + voucherId : orderKey(voucherId, shard);
+    }
+
+    private static String idKey(Long voucherId, int shard, int shards) {
+        return shards <= 1 ? SECKILL_ID_KEY + voucherId : SECKILL_ID_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    private static String streamKey(Long voucherId, int shard, int shards) {
+        return shards <= 1 ? SECKILL_ORDER_STREAM : streamKey(voucherId, shard);
+    }
+
+    //stream.orders:{voucherId:shard} -> voucherId，不是分片队列返回null
+    private static Long voucherOfStream(String stream) {
+        int start = stream.indexOf('{');
+        int end = stream.indexOf(':', start + 1);
+        if (!stream.startsWith(SECKILL_ORDER_STREAM + ":{") || end < 0) {
+            return null;
+        }
+        return Long.valueOf(stream.substring(start + 1, end));
+    }
+
+    public static String stockKey(Long voucherId, int shard) {
+        return SECKILL_STOCK_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String orderKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_KEY + "{" + voucherId + ":" + shard + "}";
+    }
+
+    public static String streamKey(Long voucherId, int shard) {
+        return SECKILL_ORDER_STREAM + ":{" + voucherId + ":" + shard + "}";
+    }
+}
@@ -0,0 +1,355 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_CHANNEL;
+
+/**
+ * 进程内的商铺坐标索引，按类型分组，每个类型一个网格索引，数据全部放在基本类型数组里
+ * 附近商铺查询不需要访问redis；启动时和定期从数据库全量加载，新增、修改商铺时通过发布订阅同步到所有节点
+ * 修改时整体替换这个类型的索引(写时复制)，查询不加锁
+ * 变更在事务提交后才更新和通知，全量重建期间的变更在替换后重新加载一次，不会被旧数据覆盖
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex {
+
+    //每一度纬度对应的米数
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * NearbyShopCache.EARTH_RADIUS;
+    //每次从数据库读取的商铺数
+    private static final int LOAD_BATCH_SIZE = 5000;
+
+    private final ShopMapper shopMapper;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //是否启用，不启用时附近商铺查询走redis
+    private final boolean enabled;
+
+    //网格边长(度)
+    private final double cellSize;
+
+    //类型id -> 索引，整体替换
+    private volatile Map<Long, TypeIndex> indexes;
+
+    //是否正在全量重建，重建期间变更的商铺id，替换后要重新加载
+    private boolean rebuilding;
+    private final Set<Long> changedDuringRebuild = new HashSet<>();
+
+    public ShopGeoIndex(ShopMapper shopMapper,
+                        StringRedisTemplate stringRedisTemplate,
+                        RedisMessageListenerContainer listenerContainer,
+                        @Value("${hmdp.shop.geo-index:false}") boolean enabled,
+                        @Value("${hmdp.shop.geo-index-cell-size:0.01}") double cellSize) {
+        this.shopMapper = shopMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.enabled = enabled;
+        this.cellSize = cellSize;
+        if (enabled) {
+            //订阅商铺变更，其他节点新增、修改商铺时重新加载这个商铺
+            listenerContainer.addMessageListener(
+                    (message, pattern) -> reload(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8))),
+                    new ChannelTopic(SHOP_GEO_CHANNEL));
+        }
+    }
+
+    //启用并且已经加载完成
+    public boolean isReady() {
+        return enabled && indexes != null;
+    }
+
+    //启动时加载，之后定期全量重建，补上没收到的变更通知
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.shop.geo-index-rebuild-interval:3600000}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            rebuilding = true;
+            changedDuringRebuild.clear();
+        }
+        try {
+            //按id分批读取坐标
+            List<Shop> shops = new ArrayList<>();
+            long lastId = 0;
+            while (true) {
+                List<Shop> batch = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "type_id", "x", "y")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + LOAD_BATCH_SIZE));
+                shops.addAll(batch);
+                if (batch.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = batch.get(batch.size() - 1).getId();
+            }
+            replaceAll(shops);
+            log.info("商铺坐标索引加载完成，shops={}", shops.size());
+        } catch (Exception e) {
+            log.error("商铺坐标索引加载失败", e);
+        } finally {
+            //读取期间变更的商铺，读到的可能是旧数据，重新加载
+            Set<Long> changed;
+            synchronized (this) {
+                rebuilding = false;
+                changed = new HashSet<>(changedDuringRebuild);
+                changedDuringRebuild.clear();
+            }
+            for (Long shopId : changed) {
+                reload(shopId);
+            }
+        }
+    }
+
+    //用给定的商铺替换全部索引
+    public synchronized void replaceAll(Collection<Shop> shops) {
+        Map<Long, List<Shop>> byType = new HashMap<>();
+        for (Shop shop : shops) {
+            if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                byType.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>()).add(shop);
+            }
+        }
+        Map<Long, TypeIndex> next = new HashMap<>(byType.size() * 2);
+        for (Map.Entry<Long, List<Shop>> entry : byType.entrySet()) {
+            List<Shop> list = entry.getValue();
+            long[] ids = new long[list.size()];
+            double[] xs = new double[list.size()];
+            double[] ys = new double[list.size()];
+            for (int i = 0; i < list.size(); i++) {
+                Shop shop = list.get(i);
+                ids[i] = shop.getId();
+                xs[i] = shop.getX();
+                ys[i] = shop.getY();
+            }
+            next.put(entry.getKey(), new TypeIndex(cellSize, ids, xs, ys));
+        }
+        indexes = next;
+    }
+
+    //商铺新增或修改后调用：事务提交后本节点更新，并通知其他节点，其他节点才能读到新数据
+    public void onShopChanged(Long shopId) {
+        if (!enabled || shopId == null) {
+            return;
+        }
+        Runnable action = () -> {
+            reload(shopId);
+            stringRedisTemplate.convertAndSend(SHOP_GEO_CHANNEL, shopId.toString());
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    //从数据库读取这个商铺，替换索引里的旧坐标，商铺已经删除就移除
+    private void reload(Long shopId) {
+        synchronized (this) {
+            if (rebuilding) {
+                changedDuringRebuild.add(shopId);
+            }
+        }
+        if (indexes == null) {
+            return;
+        }
+        try {
+            Shop shop = shopMapper.selectById(shopId);
+            put(shopId, shop);
+        } catch (Exception e) {
+            log.error("更新商铺坐标索引失败，shopId={}", shopId, e);
+        }
+    }
+
+    //先从所有类型里移除，再加入新的类型，只重建涉及的类型
+    private synchronized void put(Long shopId, Shop shop) {
+        Map<Long, TypeIndex> next = new HashMap<>(indexes);
+        for (Map.Entry<Long, TypeIndex> entry : indexes.entrySet()) {
+            TypeIndex removed = entry.getValue().without(shopId);
+            if (removed != entry.getValue()) {
+                next.put(entry.getKey(), removed);
+            }
+        }
+        if (shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+            TypeIndex old = next.get(shop.getTypeId());
+            next.put(shop.getTypeId(), old == null
+                    ? new TypeIndex(cellSize, new long[]{shopId}, new double[]{shop.getX()}, new double[]{shop.getY()})
+                    : old.with(shopId, shop.getX(), shop.getY()));
+        }
+        indexes = next;
+    }
+
+    //查询半径内的商铺，按距离从近到远
+    public List<NearbyShopCache.ShopDistance> search(Long typeId, double x, double y, double radius) {
+        Map<Long, TypeIndex> current = indexes;
+        TypeIndex index = current == null ? null : current.get(typeId);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        List<NearbyShopCache.ShopDistance> result = index.search(x, y, radius);
+        result.sort(Comparator.comparingDouble(NearbyShopCache.ShopDistance::getDistance));
+        return result;
+    }
+
+    //一个类型的网格索引：按网格编号排序后的商铺数组，每个网格在数组里是连续的一段
+    private static class TypeIndex {
+        final double cellSize;
+        //每个网格的编号，从小到大
+        final long[] cellKeys;
+        //第i个网格的商铺在数组里的范围 [cellStarts[i], cellStarts[i+1])
+        final int[] cellStarts;
+        final long[] ids;
+        final double[] xs;
+        final double[] ys;
+
+        TypeIndex(double cellSize, long[] ids, double[] xs, double[] ys) {
+            this.cellSize = cellSize;
+            int n = ids.length;
+            //1.按网格编号排序
+            long[] keys = new long[n];
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = cellKey(cellOf(ys[i], cellSize), cellOf(xs[i], cellSize));
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(i -> keys[i]));
+            this.ids = new long[n];
+            this.xs = new double[n];
+            this.ys = new double[n];
+            long[] cells = new long[n];
+            int[] starts = new int[n + 1];
+            int cellCount = 0;
+            for (int i = 0; i < n; i++) {
+                int j = order[i];
+                this.ids[i] = ids[j];
+                this.xs[i] = xs[j];
+                this.ys[i] = ys[j];
+                //2.记录每个网格的起点
+                if (cellCount == 0 || cells[cellCount - 1] != keys[j]) {
+                    cells[cellCount] = keys[j];
+                    starts[cellCount] = i;
+                    cellCount++;
+                }
+            }
+            starts[cellCount] = n;
+            this.cellKeys = Arrays.copyOf(cells, cellCount);
+            this.cellStarts = Arrays.copyOf(starts, cellCount + 1);
+        }
+
+        List<NearbyShopCache.ShopDistance> search(double x, double y, double radius) {
+            //1.半径覆盖的网格范围，经度方向按纬度换算
+            double latDelta = radius / METERS_PER_DEGREE;
+            double maxLat = Math.min(89.9, Math.abs(y) + latDelta);
+            double lonDelta = radius / (METERS_PER_DEGREE * Math.cos(Math.toRadians(maxLat)));
+            int minRow = cellOf(y - latDelta, cellSize);
+            int maxRow = cellOf(y + latDelta, cellSize);
+            int minCol = cellOf(x - lonDelta, cellSize);
+            int maxCol = cellOf(x + lonDelta, cellSize);
+            List<NearbyShopCache.ShopDistance> result = new ArrayList<>();
+            //2.每一行的网格编号是连续的，二分找到起点后顺序扫描
+            for (int row = minRow; row <= maxRow; row++) {
+                long to = cellKey(row, maxCol);
+                int c = lowerBound(cellKey(row, minCol));
+                for (; c < cellKeys.length && cellKeys[c] <= to; c++) {
+                    for (int i = cellStarts[c]; i < cellStarts[c + 1]; i++) {
+                        double distance = NearbyShopCache.distance(x, y, xs[i], ys[i]);
+                        if (distance <= radius) {
+                            result.add(new NearbyShopCache.ShopDistance(ids[i], distance));
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+
+        //去掉一个商铺，不存在时返回自己
+        TypeIndex without(long id) {
+            int pos = -1;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    pos = i;
+                    break;
+                }
+            }
+            if (pos < 0) {
+                return this;
+            }
+            int n = ids.length - 1;
+            long[] newIds = new long[n];
+            double[] newXs = new double[n];
+            double[] newYs = new double[n];
+            System.arraycopy(ids, 0, newIds, 0, pos);
+            System.arraycopy(ids, pos + 1, newIds, pos, n - pos);
+            System.arraycopy(xs, 0, newXs, 0, pos);
+            System.arraycopy(xs, pos + 1, newXs, pos, n - pos);
+            System.arraycopy(ys, 0, newYs, 0, pos);
+            System.arraycopy(ys, pos + 1, newYs, pos, n - pos);
+            return new TypeIndex(cellSize, newIds, newXs, newYs);
+        }
+
+        TypeIndex with(long id, double x, double y) {
+            int n = ids.length;
+            long[] newIds = Arrays.copyOf(ids, n + 1);
+            double[] newXs = Arrays.copyOf(xs, n + 1);
+            double[] newYs = Arrays.copyOf(ys, n + 1);
+            newIds[n] = id;
+            newXs[n] = x;
+            newYs[n] = y;
+            return new TypeIndex(cellSize, newIds, newXs, newYs);
+        }
+
+        private int lowerBound(long key) {
+            int lo = 0;
+            int hi = cellKeys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (cellKeys[mid] < key) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        private static int cellOf(double degree, double cellSize) {
+            return (int) Math.floor(degree / cellSize);
+        }
+
+        //行号在高32位，同一行的网格编号连续
+        private static long cellKey(int row, int col) {
+            return ((long) row << 32) + ((long) col - Integer.MIN_VALUE);
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.hmdp.utils.RedisConstants.LOCK_SHOP_GEO_KEY;
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 商铺坐标写入redis shop:geo:{typeId}，附近商铺查询用
+ * 1.按id分批读取 tb_shop，管道GEOADD，已有的商铺直接覆盖坐标
+ * 2.ZSCAN每个类型的key，分批对照数据库，删掉已经删除或者换了类型的商铺
+ * 启动时和定期全量同步一次，新增、修改商铺时在事务提交后单独同步这一个商铺；每次只在内存里放一批，和商铺总数无关
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Slf4j
+@Component
+public class ShopGeoLoader {
+
+    //每次从数据库读取、对照的商铺数
+    private static final int LOAD_BATCH_SIZE = 1000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final ShopMapper shopMapper;
+
+    private final RedissonClient redissonClient;
+
+    public ShopGeoLoader(StringRedisTemplate stringRedisTemplate,
+                         ShopMapper shopMapper,
+                         RedissonClient redissonClient) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.shopMapper = shopMapper;
+        this.redissonClient = redissonClient;
+    }
+
+    //启动时同步一次，之后定期全量对照，补上漏掉的变更；也可以直接调用
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.shop.geo-sync-interval:86400000}")
+    public void sync() {
+        //1.获取锁，别的实例正在同步就跳过这一轮
+        RLock lock = redissonClient.getLock(LOCK_SHOP_GEO_KEY);
+        if (!lock.tryLock()) {
+            return;
+        }
+        try {
+            //2.写入所有商铺的坐标
+            long loaded = load();
+            //3.删掉数据库里已经没有的
+            long removed = 0;
+            for (String key : scanGeoKeys()) {
+                removed += reconcile(key);
+            }
+            log.info("商铺坐标同步完成，loaded={}，removed={}", loaded, removed);
+        } catch (Exception e) {
+            log.error("商铺坐标同步失败", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //商铺新增或修改后调用，oldTypeId是修改前的类型，类型变了要从原来的key里删掉
+    //在事务里调用时等事务提交后再同步，回滚了redis里也不会留下没生效的坐标和类型
+    public void onShopChanged(Long shopId, Long oldTypeId) {
+        if (shopId == null) {
+            return;
+        }
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            syncShop(shopId, oldTypeId);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                syncShop(shopId, oldTypeId);
+            }
+        });
+    }
+
+    //从数据库读取这个商铺，写入新坐标，删掉原来类型里的
+    private void syncShop(Long shopId, Long oldTypeId) {
+        Shop shop = shopMapper.selectById(shopId);
+        String member = shopId.toString();
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            boolean located = shop != null && shop.getTypeId() != null && shop.getX() != null && shop.getY() != null;
+            if (oldTypeId != null && !(located && oldTypeId.equals(shop.getTypeId()))) {
+                conn.zRem(SHOP_GEO_KEY + oldTypeId, member);
+            }
+            if (located) {
+                conn.geoAdd(SHOP_GEO_KEY + shop.getTypeId(), new Point(shop.getX(), shop.getY()), member);
+            }
+            return null;
+        });
+    }
+
+    //按id分批读取，每批按类型分组后管道GEOADD，返回写入的商铺数
+    private long load() {
+        long lastId = 0;
+        long total = 0;
+        while (true) {
+            List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                    .select("id", "type_id", "x", "y")
+                    .gt("id", lastId)
+                    .orderByAsc("id")
+                    .last("LIMIT " + LOAD_BATCH_SIZE));
+            if (shops.isEmpty()) {
+                break;
+            }
+            Map<Long, Map<String, Point>> byType = new HashMap<>();
+            for (Shop shop : shops) {
+                if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                    byType.computeIfAbsent(shop.getTypeId(), k -> new HashMap<>())
+                            .put(shop.getId().toString(), new Point(shop.getX(), shop.getY()));
+                }
+            }
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (Map.Entry<Long, Map<String, Point>> entry : byType.entrySet()) {
+                    conn.geoAdd(SHOP_GEO_KEY + entry.getKey(), entry.getValue());
+                }
+                return null;
+            });
+            total += shops.size();
+            lastId = shops.get(shops.size() - 1).getId();
+            if (shops.size() < LOAD_BATCH_SIZE) {
+                break;
+            }
+        }
+        return total;
+    }
+
+    //ZSCAN一个类型的key，分批对照数据库，返回删掉的商铺数
+    private long reconcile(String key) {
+        Long typeId = Long.valueOf(key.substring(SHOP_GEO_KEY.length()));
+        ScanOptions options = ScanOptions.scanOptions().count(LOAD_BATCH_SIZE).build();
+        long removed = 0;
+        List<String> members = new ArrayList<>(LOAD_BATCH_SIZE);
+        try (Cursor<ZSetOperations.TypedTuple<String>> cursor = stringRedisTemplate.opsForZSet().scan(key, options)) {
+            while (cursor.hasNext()) {
+                members.add(cursor.next().getValue());
+                if (members.size() >= LOAD_BATCH_SIZE) {
+                    removed += removeStale(key, typeId, members);
+                    members.clear();
+                }
+            }
+        }
+        if (!members.isEmpty()) {
+            removed += removeStale(key, typeId, members);
+        }
+        return removed;
+    }
+
+    //删掉数据库里不存在、或者已经不是这个类型的商铺
+    private long removeStale(String key, Long typeId, List<String> members) {
+        List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                .select("id", "type_id")
+                .in("id", members));
+        Map<String, Long> types = new HashMap<>(shops.size() * 2);
+        for (Shop shop : shops) {
+            types.put(shop.getId().toString(), shop.getTypeId());
+        }
+        List<String> stale = new ArrayList<>();
+        for (String member : members) {
+            if (!Objects.equals(types.get(member), typeId)) {
+                stale.add(member);
+            }
+        }
+        if (!stale.isEmpty()) {
+            stringRedisTemplate.opsForZSet().remove(key, stale.toArray());
+        }
+        return stale.size();
+    }
+
+    //shop:geo:{typeId}，跳过发布订阅的频道名等非数字后缀
+    private List<String> scanGeoKeys() {
+        List<String> keys = new ArrayList<>();
+        stringRedisTemplate.execute((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            ScanOptions options = ScanOptions.scanOptions().match(SHOP_GEO_KEY + "*").count(LOAD_BATCH_SIZE).build();
+            try (Cursor<byte[]> cursor = conn.scan(options)) {
+                while (cursor.hasNext()) {
+                    String key = new String(cursor.next(), StandardCharsets.UTF_8);
+                    if (isTypeKey(key)) {
+                        keys.add(key);
+                    }
+                }
+            }
+            return null;
+        });
+        return keys;
+    }
+
+    private static boolean isTypeKey(String key) {
+        String id = key.substring(SHOP_GEO_KEY.length());
+        if (id.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            if (!Character.isDigit(id.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,347 @@
+package com.hmdp.utils;
+
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
+import com.hmdp.entity.Shop;
+import com.hmdp.mapper.ShopMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.SHOP_NAME_CHANNEL;
+
+/**
+ * 进程内的商铺名称倒排索引，代替 name LIKE '%x%' 的全表扫描
+ * 名称去掉空白和标点、转小写后，每个字和相邻两个字都是一个词，词 -> 按id排序的商铺id数组
+ * 查询时取关键字所有词的商铺id求交集，再用名称确认包含关键字
+ * 和LIKE不同的是忽略空白、标点和大小写，"a b" 也能查到 "AB"；关键字只有空白和标点时由调用方查数据库
+ * 启动时和定期从数据库全量加载，新增、修改商铺时通过发布订阅同步到所有节点
+ * 变更在事务提交后才更新和通知，全量重建期间的变更在替换后重新加载一次，不会被旧数据覆盖
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Slf4j
+@Component
+public class ShopNameIndex {
+
+    //每次从数据库读取的商铺数
+    private static final int LOAD_BATCH_SIZE = 5000;
+    private static final long[] EMPTY = new long[0];
+
+    private final ShopMapper shopMapper;
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    //是否启用，不启用时按名称查询走数据库
+    private final boolean enabled;
+
+    //当前的索引，全量重建时整体替换
+    private volatile Index index;
+
+    //是否正在全量重建，重建期间变更的商铺id，替换后要重新加载
+    private boolean rebuilding;
+    private final Set<Long> changedDuringRebuild = new HashSet<>();
+
+    public ShopNameIndex(ShopMapper shopMapper,
+                         StringRedisTemplate stringRedisTemplate,
+                         RedisMessageListenerContainer listenerContainer,
+                         @Value("${hmdp.shop.name-index:true}") boolean enabled) {
+        this.shopMapper = shopMapper;
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.enabled = enabled;
+        if (enabled) {
+            //订阅商铺变更，其他节点新增、修改商铺时重新加载这个商铺
+            listenerContainer.addMessageListener(
+                    (message, pattern) -> reload(Long.valueOf(new String(message.getBody(), StandardCharsets.UTF_8))),
+                    new ChannelTopic(SHOP_NAME_CHANNEL));
+        }
+    }
+
+    //启用并且已经加载完成
+    public boolean isReady() {
+        return enabled && index != null;
+    }
+
+    //关键字去掉空白和标点后还有内容，才能用索引查
+    public boolean isSearchable(String keyword) {
+        return !normalize(keyword).isEmpty();
+    }
+
+    //启动时加载，之后定期全量重建，补上没收到的变更通知
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.shop.name-index-rebuild-interval:3600000}")
+    public void rebuild() {
+        if (!enabled) {
+            return;
+        }
+        synchronized (this) {
+            rebuilding = true;
+            changedDuringRebuild.clear();
+        }
+        try {
+            Map<String, List<Long>> postings = new HashMap<>();
+            Map<Long, String> names = new HashMap<>();
+            //1.按id分批读取名称，id递增，倒排表天然有序
+            long lastId = 0;
+            while (true) {
+                List<Shop> shops = shopMapper.selectList(new QueryWrapper<Shop>()
+                        .select("id", "name")
+                        .gt("id", lastId)
+                        .orderByAsc("id")
+                        .last("LIMIT " + LOAD_BATCH_SIZE));
+                for (Shop shop : shops) {
+                    String name = normalize(shop.getName());
+                    if (name.isEmpty()) {
+                        continue;
+                    }
+                    names.put(shop.getId(), name);
+                    for (String term : terms(name)) {
+                        postings.computeIfAbsent(term, k -> new ArrayList<>()).add(shop.getId());
+                    }
+                }
+                if (shops.size() < LOAD_BATCH_SIZE) {
+                    break;
+                }
+                lastId = shops.get(shops.size() - 1).getId();
+            }
+            //2.转成基本类型数组
+            Index next = new Index(postings.size() * 2, names.size() * 2);
+            for (Map.Entry<String, List<Long>> entry : postings.entrySet()) {
+                List<Long> ids = entry.getValue();
+                long[] array = new long[ids.size()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = ids.get(i);
+                }
+                next.postings.put(entry.getKey(), array);
+            }
+            next.names.putAll(names);
+            synchronized (this) {
+                index = next;
+            }
+            log.info("商铺名称索引加载完成，shops={}，terms={}", names.size(), postings.size());
+        } catch (Exception e) {
+            log.error("商铺名称索引加载失败", e);
+        } finally {
+            //读取期间变更的商铺，读到的可能是旧数据，重新加载
+            Set<Long> changed;
+            synchronized (this) {
+                rebuilding = false;
+                changed = new HashSet<>(changedDuringRebuild);
+                changedDuringRebuild.clear();
+            }
+            for (Long shopId : changed) {
+                reload(shopId);
+            }
+        }
+    }
+
+    //商铺新增或修改后调用：事务提交后本节点更新，并通知其他节点，其他节点才能读到新数据
+    public void onShopChanged(Long shopId) {
+        if (!enabled || shopId == null) {
+            return;
+        }
+        Runnable action = () -> {
+            reload(shopId);
+            stringRedisTemplate.convertAndSend(SHOP_NAME_CHANNEL, shopId.toString());
+        };
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    //按相关度排序的全部匹配商铺id：关键字出现的位置靠前 > 名称短 > id小，名称等于关键字的排在最前
+    public List<Long> search(String keyword) {
+        String query = normalize(keyword);
+        List<Long> ids = match(query);
+        if (ids.size() < 2) {
+            return ids;
+        }
+        Index current = index;
+        Map<Long, String> names = new HashMap<>(ids.size() * 2);
+        for (Long id : ids) {
+            names.put(id, current.names.getOrDefault(id, ""));
+        }
+        ids.sort(Comparator.<Long>comparingInt(id -> names.get(id).indexOf(query))
+                .thenComparingInt(id -> names.get(id).length())
+                .thenComparingLong(id -> id));
+        return ids;
+    }
+
+    //id大于lastId的匹配商铺，按id升序，最多limit个，滚动翻页用
+    public List<Long> searchAfter(String keyword, Long lastId, int limit) {
+        List<Long> ids = match(normalize(keyword));
+        int from = 0;
+        if (lastId != null) {
+            while (from < ids.size() && ids.get(from) <= lastId) {
+                from++;
+            }
+        }
+        return new ArrayList<>(ids.subList(from, Math.min(from + limit, ids.size())));
+    }
+
+    //名称包含关键字的商铺id，按id升序
+    private List<Long> match(String query) {
+        Index current = index;
+        if (current == null || query.isEmpty()) {
+            return new ArrayList<>();
+        }
+        //1.取出关键字每个词的倒排表，从最短的开始求交集
+        Set<String> terms = query.length() == 1 ? Collections.singleton(query) : bigrams(query);
+        List<long[]> lists = new ArrayList<>(terms.size());
+        for (String term : terms) {
+            long[] ids = current.postings.get(term);
+            if (ids == null) {
+                return new ArrayList<>();
+            }
+            lists.add(ids);
+        }
+        lists.sort(Comparator.comparingInt(ids -> ids.length));
+        List<Long> result = new ArrayList<>();
+        for (long id : lists.get(0)) {
+            boolean all = true;
+            for (int i = 1; i < lists.size() && all; i++) {
+                all = Arrays.binarySearch(lists.get(i), id) >= 0;
+            }
+            //2.每个词都有的不一定连在一起，用名称确认
+            if (all && current.names.getOrDefault(id, "").contains(query)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+
+    //从数据库读取这个商铺，替换索引里的旧名称，商铺已经删除就移除
+    private void reload(Long shopId) {
+        synchronized (this) {
+            if (rebuilding) {
+                changedDuringRebuild.add(shopId);
+            }
+        }
+        if (index == null) {
+            return;
+        }
+        try {
+            Shop shop = shopMapper.selectById(shopId);
+            put(shopId, shop == null ? "" : normalize(shop.getName()));
+        } catch (Exception e) {
+            log.error("更新商铺名称索引失败，shopId={}", shopId, e);
+        }
+    }
+
+    //只替换变化的词的倒排表，查询读到的每个数组都是完整的
+    private synchronized void put(Long shopId, String name) {
+        Index current = index;
+        String old = current.names.getOrDefault(shopId, "");
+        if (old.equals(name)) {
+            return;
+        }
+        Set<String> oldTerms = terms(old);
+        Set<String> newTerms = terms(name);
+        //1.先加新的词，再改名称，最后删旧的词，更新过程中查询也能找到这个商铺
+        for (String term : newTerms) {
+            if (!oldTerms.contains(term)) {
+                long[] ids = current.postings.getOrDefault(term, EMPTY);
+                int pos = Arrays.binarySearch(ids, shopId);
+                if (pos < 0) {
+                    pos = -pos - 1;
+                    long[] next = new long[ids.length + 1];
+                    System.arraycopy(ids, 0, next, 0, pos);
+                    next[pos] = shopId;
+                    System.arraycopy(ids, pos, next, pos + 1, ids.length - pos);
+                    current.postings.put(term, next);
+                }
+            }
+        }
+        if (name.isEmpty()) {
+            current.names.remove(shopId);
+        } else {
+            current.names.put(shopId, name);
+        }
+        for (String term : oldTerms) {
+            if (!newTerms.contains(term)) {
+                long[] ids = current.postings.getOrDefault(term, EMPTY);
+                int pos = Arrays.binarySearch(ids, shopId);
+                if (pos >= 0) {
+                    if (ids.length == 1) {
+                        current.postings.remove(term);
+                        continue;
+                    }
+                    long[] next = new long[ids.length - 1];
+                    System.arraycopy(ids, 0, next, 0, pos);
+                    System.arraycopy(ids, pos + 1, next, pos, next.length - pos);
+                    current.postings.put(term, next);
+                }
+            }
+        }
+    }
+
+    //去掉空白和标点，英文转小写
+    static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(name.length());
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    //名称的所有词：单字，加上相邻的两个字
+    private static Set<String> terms(String name) {
+        Set<String> terms = new LinkedHashSet<>(name.length() * 4);
+        for (int i = 0; i < name.length(); i++) {
+            terms.add(name.substring(i, i + 1));
+        }
+        terms.addAll(bigrams(name));
+        return terms;
+    }
+
+    private static Set<String> bigrams(String name) {
+        Set<String> bigrams = new LinkedHashSet<>(name.length() * 2);
+        for (int i = 0; i + 1 < name.length(); i++) {
+            bigrams.add(name.substring(i, i + 2));
+        }
+        return bigrams;
+    }
+
+    private static class Index {
+        //词 -> 商铺id，升序
+        final Map<String, long[]> postings;
+        //商铺id -> 规范化后的名称
+        final Map<Long, String> names;
+
+        Index(int terms, int shops) {
+            this.postings = new ConcurrentHashMap<>(terms);
+            this.names = new ConcurrentHashMap<>(shops);
+        }
+    }
+}
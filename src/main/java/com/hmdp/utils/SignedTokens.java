@@ -0,0 +1,254 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.codec.BinaryCacheCodec;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_DENY_CHANNEL;
+import static com.hmdp.utils.RedisConstants.LOGIN_DENY_KEY;
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+
+/**
+ * 签名token：用户信息和过期时间写在token里，用HMAC签名，校验时不访问redis
+ * 格式：base64url(payload).base64url(hmac前16字节)
+ * 注销的token记在redis的黑名单 login:deny 里，本地用布隆过滤器判断，只有可能在黑名单里的token才查redis
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@Slf4j
+@Component
+public class SignedTokens {
+
+    public static final String MODE_SESSION = "session";
+    public static final String MODE_SIGNED = "signed";
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    //签名只保留前16字节，缩短token长度
+    private static final int SIGNATURE_LENGTH = 16;
+    //黑名单布隆过滤器的容量和误判率
+    private static final long DENY_EXPECTED = 100000;
+    private static final double DENY_FPP = 0.01;
+
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    private static final ClaimsCodec CODEC = new ClaimsCodec();
+
+    private final StringRedisTemplate stringRedisTemplate;
+
+    private final boolean enabled;
+
+    private final SecretKeySpec key;
+
+    //Mac不是线程安全的，每个线程一个
+    private final ThreadLocal<Mac> macs;
+
+    //token有效期(毫秒)
+    private final long ttlMillis;
+
+    //已注销token的id，定期从redis重建
+    private volatile BloomFilter denied = new BloomFilter(DENY_EXPECTED, DENY_FPP);
+    //正在重建的过滤器，重建期间注销的token也要写进去
+    //deny和替换过滤器用同一把锁，否则替换前刚写入旧过滤器的token会丢
+    private volatile BloomFilter building;
+
+    public SignedTokens(StringRedisTemplate stringRedisTemplate,
+                        RedisMessageListenerContainer listenerContainer,
+                        @Value("${hmdp.auth.mode:session}") String mode,
+                        @Value("${hmdp.auth.secret:}") String secret) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.enabled = MODE_SIGNED.equals(mode);
+        this.ttlMillis = TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+        if (enabled && StrUtil.isBlank(secret)) {
+            throw new IllegalStateException("hmdp.auth.mode=signed 时必须配置 hmdp.auth.secret");
+        }
+        this.key = enabled ? new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM) : null;
+        this.macs = ThreadLocal.withInitial(this::newMac);
+        //订阅注销频道，其他节点注销的token同步写入本地布隆过滤器
+        listenerContainer.addMessageListener(
+                (message, pattern) -> deny(Long.parseLong(new String(message.getBody(), StandardCharsets.UTF_8))),
+                new ChannelTopic(LOGIN_DENY_CHANNEL));
+    }
+
+    //是否使用签名token登录
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    //登录成功后签发token
+    public String issue(UserDTO user) {
+        Claims claims = new Claims();
+        claims.tokenId = ThreadLocalRandom.current().nextLong();
+        claims.expireMillis = System.currentTimeMillis() + ttlMillis;
+        claims.user = user;
+        byte[] payload = CODEC.encode(claims);
+        return ENCODER.encodeToString(payload) + "." + ENCODER.encodeToString(sign(payload));
+    }
+
+    //校验token，签名不对、已过期或已注销返回null
+    public UserDTO verify(String token) {
+        Claims claims = parse(token);
+        if (claims == null || isDenied(claims.tokenId)) {
+            return null;
+        }
+        return claims.user;
+    }
+
+    //注销token：写入redis黑名单，保留到token本来的过期时间，并通知所有节点
+    public void revoke(String token) {
+        Claims claims = parse(token);
+        if (claims == null) {
+            return;
+        }
+        String tokenId = String.valueOf(claims.tokenId);
+        stringRedisTemplate.opsForZSet().add(LOGIN_DENY_KEY, tokenId, claims.expireMillis);
+        deny(claims.tokenId);
+        stringRedisTemplate.convertAndSend(LOGIN_DENY_CHANNEL, tokenId);
+    }
+
+    private synchronized void deny(long tokenId) {
+        denied.put(tokenId);
+        BloomFilter next = building;
+        if (next != null) {
+            next.put(tokenId);
+        }
+    }
+
+    //启动时加载黑名单，之后定期清理已过期的记录并重建布隆过滤器
+    @Scheduled(initialDelay = 0, fixedDelayString = "${hmdp.auth.deny-rebuild-interval:600000}")
+    public void rebuildDenyList() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        //1.过期的token本来就无法通过校验，从黑名单里删掉
+        stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_DENY_KEY, 0, now);
+        //2.剩下的写入新的布隆过滤器
+        Long size = stringRedisTemplate.opsForZSet().zCard(LOGIN_DENY_KEY);
+        BloomFilter filter = new BloomFilter(Math.max(DENY_EXPECTED, size == null ? 0 : size * 2), DENY_FPP);
+        building = filter;
+        try {
+            Set<String> tokenIds = stringRedisTemplate.opsForZSet().rangeByScore(LOGIN_DENY_KEY, now, Double.MAX_VALUE);
+            if (tokenIds != null) {
+                for (String tokenId : tokenIds) {
+                    filter.put(Long.parseLong(tokenId));
+                }
+            }
+            //3.替换旧的过滤器，和deny互斥，范围查询之后注销的token已经写进了filter
+            synchronized (this) {
+                denied = filter;
+                building = null;
+            }
+        } finally {
+            synchronized (this) {
+                if (building == filter) {
+                    building = null;
+                }
+            }
+        }
+        log.info("token黑名单重建完成，size={}", size);
+    }
+
+    //布隆过滤器判断不在黑名单就一定没注销，可能在时再查redis确认
+    private boolean isDenied(long tokenId) {
+        if (!denied.mightContain(tokenId)) {
+            return false;
+        }
+        return stringRedisTemplate.opsForZSet().score(LOGIN_DENY_KEY, String.valueOf(tokenId)) != null;
+    }
+
+    private Claims parse(String token) {
+        if (!enabled || StrUtil.isBlank(token)) {
+            return null;
+        }
+        //1.拆分payload和签名
+        int dot = token.indexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        try {
+            byte[] payload = DECODER.decode(token.substring(0, dot));
+            byte[] signature = DECODER.decode(token.substring(dot + 1));
+            //2.校验签名，使用固定时间的比较
+            if (!MessageDigest.isEqual(sign(payload), signature)) {
+                return null;
+            }
+            //3.解析并判断是否过期
+            Claims claims = CODEC.decode(payload);
+            return claims.expireMillis > System.currentTimeMillis() ? claims : null;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private byte[] sign(byte[] payload) {
+        return Arrays.copyOf(macs.get().doFinal(payload), SIGNATURE_LENGTH);
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(key);
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    //token里保存的内容
+    private static class Claims {
+        long tokenId;
+        long expireMillis;
+        UserDTO user;
+    }
+
+    private static class ClaimsCodec extends BinaryCacheCodec<Claims> {
+
+        private static final int VERSION = 1;
+
+        ClaimsCodec() {
+            super(VERSION);
+        }
+
+        @Override
+        protected void write(Claims value, Output out) {
+            out.writeLong(value.tokenId);
+            out.writeLong(value.expireMillis);
+            out.writeLong(value.user.getId());
+            out.writeString(value.user.getNickName());
+            out.writeString(value.user.getIcon());
+        }
+
+        @Override
+        protected Claims read(Input in, int version) {
+            Claims value = new Claims();
+            value.tokenId = in.readLong();
+            value.expireMillis = in.readLong();
+            UserDTO user = new UserDTO();
+            user.setId(in.readLong());
+            user.setNickName(in.readString());
+            user.setIcon(in.readString());
+            value.user = user;
+            return value;
+        }
+    }
+}
@@ -5,4 +5,7 @@ public class SystemConstants {
     public static final String USER_NICK_NAME_PREFIX = "user_";
     public static final int DEFAULT_PAGE_SIZE = 5;
     public static final int MAX_PAGE_SIZE = 10;
+    public static final int LOCAL_CACHE_CAPACITY = 1000;
+    public static final long LOCAL_CACHE_TTL = 60 * 1000L;
+    public static final int LOGIN_CACHE_CAPACITY = 10000;
 }
@@ -0,0 +1,197 @@
+package com.hmdp.utils.codec;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * 紧凑的二进制编解码器
+ * 格式：魔数(1字节) + 版本号(1字节) + 各个字段
+ * 整数使用变长编码，null用0表示，其他值加1后写入
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public abstract class BinaryCacheCodec<T> implements CacheCodec<T> {
+
+    //魔数，json一定以'{'开头，用来区分旧的json缓存
+    public static final byte MAGIC = (byte) 0xB7;
+
+    private final byte version;
+
+    protected BinaryCacheCodec(int version) {
+        this.version = (byte) version;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        Output out = new Output();
+        out.buf[out.pos++] = MAGIC;
+        out.buf[out.pos++] = version;
+        write(value, out);
+        return out.toByteArray();
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        if (!isBinary(bytes)) {
+            throw new IllegalArgumentException("不是二进制缓存数据");
+        }
+        Input in = new Input(bytes, 2);
+        return read(in, bytes[1]);
+    }
+
+    //判断是否是二进制编码的数据
+    public static boolean isBinary(byte[] bytes) {
+        return bytes != null && bytes.length >= 2 && bytes[0] == MAGIC;
+    }
+
+    //按照当前版本写入字段
+    protected abstract void write(T value, Output out);
+
+    //按照数据的版本读取字段，旧版本的数据要能读出来
+    protected abstract T read(Input in, int version);
+
+    public static class Output {
+        private byte[] buf = new byte[64];
+        private int pos;
+
+        public void writeLong(Long value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            //zigzag编码，负数也能用较少的字节
+            writeVarLong(((value << 1) ^ (value >> 63)) + 1);
+        }
+
+        public void writeInt(Integer value) {
+            writeLong(value == null ? null : value.longValue());
+        }
+
+        public void writeBoolean(Boolean value) {
+            ensure(1);
+            buf[pos++] = (byte) (value == null ? 0 : value ? 2 : 1);
+        }
+
+        public void writeDouble(Double value) {
+            if (value == null) {
+                ensure(1);
+                buf[pos++] = 0;
+                return;
+            }
+            ensure(9);
+            buf[pos++] = 1;
+            long bits = Double.doubleToLongBits(value);
+            for (int i = 7; i >= 0; i--) {
+                buf[pos++] = (byte) (bits >>> (i * 8));
+            }
+        }
+
+        public void writeString(String value) {
+            if (value == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length + 1L);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        //时间按照毫秒时间戳写入
+        public void writeTime(LocalDateTime value) {
+            writeLong(value == null ? null : value.toInstant(ZoneOffset.UTC).toEpochMilli());
+        }
+
+        private void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buf[pos++] = (byte) value;
+        }
+
+        private void ensure(int size) {
+            if (pos + size > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length << 1, pos + size));
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    public static class Input {
+        private final byte[] buf;
+        private int pos;
+
+        private Input(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        public Long readLong() {
+            long raw = readVarLong();
+            if (raw == 0) {
+                return null;
+            }
+            raw--;
+            return (raw >>> 1) ^ -(raw & 1);
+        }
+
+        public Integer readInt() {
+            Long value = readLong();
+            return value == null ? null : value.intValue();
+        }
+
+        public Boolean readBoolean() {
+            byte b = buf[pos++];
+            return b == 0 ? null : b == 2;
+        }
+
+        public Double readDouble() {
+            if (buf[pos++] == 0) {
+                return null;
+            }
+            long bits = 0;
+            for (int i = 0; i < 8; i++) {
+                bits = (bits << 8) | (buf[pos++] & 0xFF);
+            }
+            return Double.longBitsToDouble(bits);
+        }
+
+        public String readString() {
+            long length = readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            int size = (int) (length - 1);
+            String value = new String(buf, pos, size, StandardCharsets.UTF_8);
+            pos += size;
+            return value;
+        }
+
+        public LocalDateTime readTime() {
+            Long millis = readLong();
+            return millis == null ? null : LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = buf[pos++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return value;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.Blog;
+
+/**
+ * 探店笔记的二进制编解码器
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public class BlogCodec extends BinaryCacheCodec<Blog> {
+
+    //字段有变化时升级版本号，read方法按版本兼容旧数据
+    private static final int VERSION = 1;
+
+    public BlogCodec() {
+        super(VERSION);
+    }
+
+    @Override
+    protected void write(Blog value, Output out) {
+        out.writeLong(value.getId());
+        out.writeLong(value.getShopId());
+        out.writeLong(value.getUserId());
+        out.writeString(value.getTitle());
+        out.writeString(value.getImages());
+        out.writeString(value.getContent());
+        out.writeInt(value.getLiked());
+        out.writeInt(value.getComments());
+        out.writeTime(value.getCreateTime());
+        out.writeTime(value.getUpdateTime());
+    }
+
+    @Override
+    protected Blog read(Input in, int version) {
+        Blog value = new Blog();
+        value.setId(in.readLong());
+        value.setShopId(in.readLong());
+        value.setUserId(in.readLong());
+        value.setTitle(in.readString());
+        value.setImages(in.readString());
+        value.setContent(in.readString());
+        value.setLiked(in.readInt());
+        value.setComments(in.readInt());
+        value.setCreateTime(in.readTime());
+        value.setUpdateTime(in.readTime());
+        return value;
+    }
+}
@@ -0,0 +1,16 @@
+package com.hmdp.utils.codec;
+
+/**
+ * 缓存值的编解码器
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public interface CacheCodec<T> {
+
+    //对象转为写入redis的字节
+    byte[] encode(T value);
+
+    //从redis读取的字节转为对象
+    T decode(byte[] bytes);
+}
@@ -0,0 +1,114 @@
+package com.hmdp.utils.codec;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import com.hmdp.entity.Voucher;
+import com.hmdp.utils.RedisData;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按类型选择编解码器，没有注册的类型使用json
+ * 逻辑过期的数据格式：过期时间毫秒时间戳(8字节) + 数据
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public class CacheCodecs {
+
+    //逻辑过期时间头的长度
+    private static final int EXPIRE_HEADER_SIZE = 8;
+
+    private final Map<Class<?>, CacheCodec<?>> codecs = new ConcurrentHashMap<>();
+
+    //没有注册的类型和旧的json数据使用的json编解码器，按类型缓存
+    private final Map<Class<?>, JsonCacheCodec<?>> jsonCodecs = new ConcurrentHashMap<>();
+
+    public CacheCodecs() {
+        register(Shop.class, new ShopCodec());
+        register(User.class, new UserCodec());
+        register(UserDTO.class, new UserDTOCodec());
+        register(Blog.class, new BlogCodec());
+        register(Voucher.class, new VoucherCodec());
+    }
+
+    //注册或替换某个类型的编解码器
+    public <T> void register(Class<T> type, CacheCodec<T> codec) {
+        codecs.put(type, codec);
+    }
+
+    @SuppressWarnings("unchecked")
+    public byte[] encode(Object value) {
+        CacheCodec<Object> codec = (CacheCodec<Object>) codecs.get(value.getClass());
+        if (codec == null) {
+            codec = (CacheCodec<Object>) json(value.getClass());
+        }
+        return codec.encode(value);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <R> R decode(byte[] bytes, Class<R> type) {
+        CacheCodec<R> codec = (CacheCodec<R>) codecs.get(type);
+        //二进制编解码器只处理带魔数的数据，旧的json数据继续按json解析
+        if (codec == null || (codec instanceof BinaryCacheCodec && !BinaryCacheCodec.isBinary(bytes))) {
+            return json(type).decode(bytes);
+        }
+        return codec.decode(bytes);
+    }
+
+    @SuppressWarnings("unchecked")
+    private <R> JsonCacheCodec<R> json(Class<R> type) {
+        return (JsonCacheCodec<R>) jsonCodecs.computeIfAbsent(type, JsonCacheCodec::new);
+    }
+
+    //写入逻辑过期时间头和数据
+    public byte[] encodeWithExpire(Object value, long expireMillis) {
+        byte[] data = value == null ? new byte[0] : encode(value);
+        byte[] bytes = new byte[EXPIRE_HEADER_SIZE + data.length];
+        for (int i = 0; i < EXPIRE_HEADER_SIZE; i++) {
+            bytes[i] = (byte) (expireMillis >>> ((EXPIRE_HEADER_SIZE - 1 - i) * 8));
+        }
+        System.arraycopy(data, 0, bytes, EXPIRE_HEADER_SIZE, data.length);
+        return bytes;
+    }
+
+    //读取逻辑过期的数据，兼容旧的RedisData json格式
+    public <R> Expiring<R> decodeWithExpire(byte[] bytes, Class<R> type) {
+        if (bytes[0] == '{') {
+            RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            R data = redisData.getData() == null ? null : JSONUtil.toBean((JSONObject) redisData.getData(), type);
+            long expireMillis = redisData.getExpireTime().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+            return new Expiring<>(expireMillis, data);
+        }
+        long expireMillis = 0;
+        for (int i = 0; i < EXPIRE_HEADER_SIZE; i++) {
+            expireMillis = (expireMillis << 8) | (bytes[i] & 0xFF);
+        }
+        R data = bytes.length == EXPIRE_HEADER_SIZE
+                ? null
+                : decode(Arrays.copyOfRange(bytes, EXPIRE_HEADER_SIZE, bytes.length), type);
+        return new Expiring<>(expireMillis, data);
+    }
+
+    @Data
+    @AllArgsConstructor
+    public static class Expiring<R> {
+        //逻辑过期时间，毫秒时间戳
+        private long expireMillis;
+        private R data;
+
+        public boolean isExpired() {
+            return expireMillis <= System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.hmdp.utils.codec;
+
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 基于hutool的json编解码器，没有注册二进制编解码器的类型都使用它
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public class JsonCacheCodec<T> implements CacheCodec<T> {
+
+    private final Class<T> type;
+
+    public JsonCacheCodec(Class<T> type) {
+        this.type = type;
+    }
+
+    @Override
+    public byte[] encode(T value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public T decode(byte[] bytes) {
+        return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+    }
+}
@@ -0,0 +1,59 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.Shop;
+
+/**
+ * 商铺的二进制编解码器
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public class ShopCodec extends BinaryCacheCodec<Shop> {
+
+    //字段有变化时升级版本号，read方法按版本兼容旧数据
+    private static final int VERSION = 1;
+
+    public ShopCodec() {
+        super(VERSION);
+    }
+
+    @Override
+    protected void write(Shop value, Output out) {
+        out.writeLong(value.getId());
+        out.writeString(value.getName());
+        out.writeLong(value.getTypeId());
+        out.writeString(value.getImages());
+        out.writeString(value.getArea());
+        out.writeString(value.getAddress());
+        out.writeDouble(value.getX());
+        out.writeDouble(value.getY());
+        out.writeLong(value.getAvgPrice());
+        out.writeInt(value.getSold());
+        out.writeInt(value.getComments());
+        out.writeInt(value.getScore());
+        out.writeString(value.getOpenHours());
+        out.writeTime(value.getCreateTime());
+        out.writeTime(value.getUpdateTime());
+    }
+
+    @Override
+    protected Shop read(Input in, int version) {
+        Shop value = new Shop();
+        value.setId(in.readLong());
+        value.setName(in.readString());
+        value.setTypeId(in.readLong());
+        value.setImages(in.readString());
+        value.setArea(in.readString());
+        value.setAddress(in.readString());
+        value.setX(in.readDouble());
+        value.setY(in.readDouble());
+        value.setAvgPrice(in.readLong());
+        value.setSold(in.readInt());
+        value.setComments(in.readInt());
+        value.setScore(in.readInt());
+        value.setOpenHours(in.readString());
+        value.setCreateTime(in.readTime());
+        value.setUpdateTime(in.readTime());
+        return value;
+    }
+}
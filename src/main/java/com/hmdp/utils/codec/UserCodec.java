@@ -0,0 +1,43 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.User;
+
+/**
+ * 用户的二进制编解码器
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public class UserCodec extends BinaryCacheCodec<User> {
+
+    //字段有变化时升级版本号，read方法按版本兼容旧数据
+    private static final int VERSION = 1;
+
+    public UserCodec() {
+        super(VERSION);
+    }
+
+    @Override
+    protected void write(User value, Output out) {
+        out.writeLong(value.getId());
+        out.writeString(value.getPhone());
+        out.writeString(value.getPassword());
+        out.writeString(value.getNickName());
+        out.writeString(value.getIcon());
+        out.writeTime(value.getCreateTime());
+        out.writeTime(value.getUpdateTime());
+    }
+
+    @Override
+    protected User read(Input in, int version) {
+        User value = new User();
+        value.setId(in.readLong());
+        value.setPhone(in.readString());
+        value.setPassword(in.readString());
+        value.setNickName(in.readString());
+        value.setIcon(in.readString());
+        value.setCreateTime(in.readTime());
+        value.setUpdateTime(in.readTime());
+        return value;
+    }
+}
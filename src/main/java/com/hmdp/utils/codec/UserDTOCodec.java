@@ -0,0 +1,35 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.dto.UserDTO;
+
+/**
+ * 用户信息的二进制编解码器
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public class UserDTOCodec extends BinaryCacheCodec<UserDTO> {
+
+    //字段有变化时升级版本号，read方法按版本兼容旧数据
+    private static final int VERSION = 1;
+
+    public UserDTOCodec() {
+        super(VERSION);
+    }
+
+    @Override
+    protected void write(UserDTO value, Output out) {
+        out.writeLong(value.getId());
+        out.writeString(value.getNickName());
+        out.writeString(value.getIcon());
+    }
+
+    @Override
+    protected UserDTO read(Input in, int version) {
+        UserDTO value = new UserDTO();
+        value.setId(in.readLong());
+        value.setNickName(in.readString());
+        value.setIcon(in.readString());
+        return value;
+    }
+}
@@ -0,0 +1,57 @@
+package com.hmdp.utils.codec;
+
+import com.hmdp.entity.Voucher;
+
+/**
+ * 优惠券的二进制编解码器
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public class VoucherCodec extends BinaryCacheCodec<Voucher> {
+
+    //字段有变化时升级版本号，read方法按版本兼容旧数据
+    private static final int VERSION = 1;
+
+    public VoucherCodec() {
+        super(VERSION);
+    }
+
+    @Override
+    protected void write(Voucher value, Output out) {
+        out.writeLong(value.getId());
+        out.writeLong(value.getShopId());
+        out.writeString(value.getTitle());
+        out.writeString(value.getSubTitle());
+        out.writeString(value.getRules());
+        out.writeLong(value.getPayValue());
+        out.writeLong(value.getActualValue());
+        out.writeInt(value.getType());
+        out.writeInt(value.getStatus());
+        out.writeInt(value.getStock());
+        out.writeTime(value.getBeginTime());
+        out.writeTime(value.getEndTime());
+        out.writeTime(value.getCreateTime());
+        out.writeTime(value.getUpdateTime());
+    }
+
+    @Override
+    protected Voucher read(Input in, int version) {
+        Voucher value = new Voucher();
+        value.setId(in.readLong());
+        value.setShopId(in.readLong());
+        value.setTitle(in.readString());
+        value.setSubTitle(in.readString());
+        value.setRules(in.readString());
+        value.setPayValue(in.readLong());
+        value.setActualValue(in.readLong());
+        value.setType(in.readInt());
+        value.setStatus(in.readInt());
+        value.setStock(in.readInt());
+        value.setBeginTime(in.readTime());
+        value.setEndTime(in.readTime());
+        value.setCreateTime(in.readTime());
+        value.setUpdateTime(in.readTime());
+        return value;
+    }
+}
@@ -0,0 +1,15 @@
+-- 记录收件箱、发件箱的裁剪边界：裁剪后最早的一条，只往新的方向移动，并发裁剪时不会被更早的边界覆盖
+-- KEYS[1] feed:horizon，ARGV[1] 收件箱或发件箱的key，ARGV[2] 分数，ARGV[3] 笔记id
+local old = redis.call('hget', KEYS[1], ARGV[1])
+if(old) then
+    -- 原来的边界 分数:笔记id
+    local sep = string.find(old, ':')
+    local oldScore = tonumber(string.sub(old, 1, sep - 1))
+    local oldId = tonumber(string.sub(old, sep + 1))
+    local score = tonumber(ARGV[2])
+    if(oldScore > score or (oldScore == score and oldId >= tonumber(ARGV[3]))) then
+        return 0
+    end
+end
+redis.call('hset', KEYS[1], ARGV[1], ARGV[2] .. ':' .. ARGV[3])
+return 1
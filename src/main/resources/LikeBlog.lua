@@ -0,0 +1,16 @@
+-- 点赞或取消点赞，同时记录点赞数的增量，由后台定期批量写入数据库
+-- KEYS[1] 点赞集合 blog:liked:blogId，KEYS[2] 增量 blog:like:delta，KEYS[3] 热门排行 blog:hot
+-- ARGV[1] 用户id，ARGV[2] 点赞时间，ARGV[3] 笔记id
+-- 返回本次的增量：1 点赞，-1 取消点赞
+if(redis.call('zscore', KEYS[1], ARGV[1])) then
+    -- 已点赞，取消点赞
+    redis.call('zrem', KEYS[1], ARGV[1])
+    redis.call('hincrby', KEYS[2], ARGV[3], -1)
+    redis.call('zincrby', KEYS[3], -1, ARGV[3])
+    return -1
+end
+-- 未点赞，点赞
+redis.call('zadd', KEYS[1], ARGV[2], ARGV[1])
+redis.call('hincrby', KEYS[2], ARGV[3], 1)
+redis.call('zincrby', KEYS[3], 1, ARGV[3])
+return 1
@@ -0,0 +1,7 @@
+-- 快照写入数据库后删除，批次号一致才删，避免删掉别的实例刚生成的新快照
+-- KEYS[1] 快照 blog:like:flushing，KEYS[2] 快照批次号 blog:like:flushing:batch，ARGV[1] 批次号
+if(redis.call('get', KEYS[2]) == ARGV[1]) then
+    redis.call('del', KEYS[1], KEYS[2])
+    return 1
+end
+return 0
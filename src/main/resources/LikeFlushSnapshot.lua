@@ -0,0 +1,16 @@
+-- 取出待写入数据库的点赞增量快照
+-- KEYS[1] 增量 blog:like:delta，KEYS[2] 快照 blog:like:flushing，KEYS[3] 快照批次号 blog:like:flushing:batch
+-- ARGV[1] 新的批次号
+-- 返回 {批次号, blogId1, delta1, blogId2, delta2 ...}，没有增量返回空
+-- 1.上次的快照还没写完(宕机或者写库失败)，接着写上次的，批次号不变，数据库按批次号去重
+if(redis.call('exists', KEYS[2]) == 0) then
+    -- 2.没有未完成的快照，把当前增量改名成快照，之后的点赞写入新的增量
+    if(redis.call('exists', KEYS[1]) == 0) then
+        return {}
+    end
+    redis.call('rename', KEYS[1], KEYS[2])
+    redis.call('set', KEYS[3], ARGV[1])
+end
+local result = redis.call('hgetall', KEYS[2])
+table.insert(result, 1, redis.call('get', KEYS[3]))
+return result
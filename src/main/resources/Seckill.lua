@@ -1,32 +1,39 @@
--- 1.参数列表
--- 1.1.优惠券id
-local voucherId = ARGV[1]
--- 1.2.用户id
-local userId = ARGV[2]
--- 1.3.订单id
-local orderId = ARGV[3]
-
--- 2.数据key
--- 2.1.库存key
-local stockKey = 'seckill:stock:' .. voucherId
--- 2.2.订单key
-local orderKey = 'seckill:order:' .. voucherId
+-- 1.数据key，分片模式下库存key、订单key和订单队列带相同的hash tag，在同一个slot
+-- 1.1.库存key seckill:stock:voucherId 或 seckill:stock:{voucherId:shard}
+local stockKey = KEYS[1]
+-- 1.2.订单key seckill:order:voucherId 或 seckill:order:{voucherId:shard}
+local orderKey = KEYS[2]
+-- 1.3.订单队列 stream.orders 或 stream.orders:{voucherId:shard}
+local streamKey = KEYS[3]
+-- 1.4.预先生成的订单id列表 seckill:ids:voucherId 或 seckill:ids:{voucherId:shard}
+local idKey = KEYS[4]
+-- 2.参数列表
+-- 2.1.用户id
+local userId = ARGV[1]
+-- 2.2.优惠券id
+local voucherId = ARGV[2]
 
 -- 3.脚本业务
--- 3.1.判断库存是否充足 get stockKey
-if(tonumber(redis.call('get', stockKey)) <= 0) then
-    -- 3.2.库存不足，返回1
-    return 1
-end
--- 3.2.判断用户是否下单 SISMEMBER orderKey userId
+-- 3.1.判断用户是否下单 SISMEMBER orderKey userId
 if(redis.call('sismember', orderKey, userId) == 1) then
-    -- 3.3.存在，说明是重复下单，返回2
-    return 2
+    -- 3.2.存在，说明是重复下单，返回2
+    return {2}
+end
+-- 3.3.判断库存是否充足 get stockKey
+if(tonumber(redis.call('get', stockKey) or 0) <= 0) then
+    -- 3.4.库存不足，返回1
+    return {1}
+end
+-- 3.5.有购买资格才取订单id，id是字符串，lua的数字放不下64位的id lpop idKey
+local orderId = redis.call('lpop', idKey)
+if(not orderId) then
+    -- 3.6.id用完了，返回3，由调用方补充后重试
+    return {3}
 end
--- 3.4.扣库存 incrby stockKey -1
+-- 3.7.扣库存 incrby stockKey -1
 redis.call('incrby', stockKey, -1)
--- 3.5.下单（保存用户）sadd orderKey userId
+-- 3.8.下单（保存用户）sadd orderKey userId
 redis.call('sadd', orderKey, userId)
--- 3.6.发送消息到队列中， XADD stream.orders * k1 v1 k2 v2 ...
-redis.call('xadd', 'stream.orders', '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
-return 0
\ No newline at end of file
+-- 3.9.发送消息到队列中，和扣库存在同一个脚本里，要么都成功要么都不执行 XADD stream.orders * k1 v1 k2 v2 ...
+redis.call('xadd', streamKey, '*', 'userId', userId, 'voucherId', voucherId, 'id', orderId)
+return {0, orderId}
@@ -0,0 +1,7 @@
+-- 订单最终没有创建时退回库存，KEYS[1] 库存key，KEYS[2] 订单key，ARGV[1] 用户id
+-- 用户还在已下单集合里才退，重复执行不会多加库存
+if(redis.call('srem', KEYS[2], ARGV[1]) == 1) then
+    redis.call('incrby', KEYS[1], 1)
+    return 1
+end
+return 0
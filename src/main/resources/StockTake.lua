@@ -0,0 +1,10 @@
+-- 从库存充足的分片调走一半库存，KEYS[1] 是被调拨的分片库存key
+local stock = tonumber(redis.call('get', KEYS[1]) or 0)
+if(stock <= 0) then
+    -- 这个分片也没有库存了
+    return 0
+end
+-- 至少调走1个
+local take = math.ceil(stock / 2)
+redis.call('decrby', KEYS[1], take)
+return take
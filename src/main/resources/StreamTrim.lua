@@ -0,0 +1,3 @@
+-- 裁剪消息队列，删除id小于ARGV[1]的消息，~ 表示按整个节点删除，可能少删一点
+-- KEYS[1] 队列key，ARGV[1] 最小保留的消息id
+return redis.call('xtrim', KEYS[1], 'MINID', '~', ARGV[1])
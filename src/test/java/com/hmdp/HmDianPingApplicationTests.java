@@ -1,25 +1,18 @@
 package com.hmdp;
 
-import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
-import com.hmdp.utils.RedisConstants;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.ShopGeoLoader;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
-import org.springframework.data.geo.Point;
-import org.springframework.data.redis.connection.RedisGeoCommands;
 import org.springframework.data.redis.core.StringRedisTemplate;
 
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
 
 @SpringBootTest
 class HmDianPingApplicationTests {
@@ -33,6 +26,9 @@ class HmDianPingApplicationTests {
     @Autowired
     private StringRedisTemplate stringRedisTemplate;
 
+    @Autowired
+    private ShopGeoLoader shopGeoLoader;
+
     @Test
     void testSaveShop(){
         shopService.saveShop2Redis(1L,10L);
@@ -42,27 +38,8 @@ class HmDianPingApplicationTests {
 
     @Test
     void loadShopData(){
-        //1.查询店铺信息
-        List<Shop> list = shopService.list();
-        //2.分组，按照typeId分组，typeId一致的放到一个集合
-        Map<Long, List<Shop>> map = list.stream().collect(Collectors.groupingBy(Shop::getTypeId));
-        //3.分批完成写入Redis
-        for (Map.Entry<Long, List<Shop>> entry : map.entrySet()) {
-            //3.1获取类型id
-            Long typeId = entry.getKey();
-            String key = RedisConstants.SHOP_GEO_KEY + typeId;
-            //3.2获取同类型的店铺集合
-            List<Shop> value = entry.getValue();
-            List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(value.size());
-            //3.3写入redis GEOADD key 经度 纬度 member
-           for (Shop shop: value){
-               locations.add(new RedisGeoCommands.GeoLocation<>(
-                       shop.getId().toString(),
-                       new Point(shop.getX(), shop.getY())
-               ));
-           }
-            stringRedisTemplate.opsForGeo().add(key,locations);
-        }
+        //分批读取店铺，管道写入redis，并删掉已经不存在的店铺
+        shopGeoLoader.sync();
     }
 
 
@@ -0,0 +1,80 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.CacheClient;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_TTL;
+
+/**
+ * CacheClient三种查询策略(缓存穿透、互斥锁、逻辑过期)以及本地缓存的命中耗时，互斥锁未命中时的重建耗时
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Benchmark)
+public class CacheClientBenchmark {
+
+    private static final Long HIT_ID = 1L;
+    private static final Long LOGICAL_ID = 2L;
+    private static final Long MISS_ID = 3L;
+
+    private EmbeddedRedis redis;
+    private CacheClient cacheClient;
+    private Shop shop;
+
+    @Setup
+    public void setup() throws IOException {
+        redis = new EmbeddedRedis();
+        cacheClient = new CacheClient(redis.stringRedisTemplate(), redis.byteRedisTemplate(), redis.listenerContainer());
+        shop = CacheCodecBenchmark.sampleShop();
+        cacheClient.set(CACHE_SHOP_KEY + HIT_ID, shop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        cacheClient.setWithLogicalExpire(CACHE_SHOP_KEY + LOGICAL_ID, shop, 1L, TimeUnit.HOURS);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        redis.close();
+    }
+
+    //模拟数据库查询，只返回对象，不计算数据库耗时
+    private Shop loadShop(Long id) {
+        return shop;
+    }
+
+    @Benchmark
+    public Shop passThroughHit() {
+        return cacheClient.queryWithPassThrougth(CACHE_SHOP_KEY, HIT_ID, Shop.class, this::loadShop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop mutexHit() {
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, HIT_ID, Shop.class, this::loadShop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    @Benchmark
+    public Shop logicalExpireHit() {
+        return cacheClient.queryWithLogicalExpire(CACHE_SHOP_KEY, LOGICAL_ID, Shop.class, this::loadShop, 1L, TimeUnit.HOURS);
+    }
+
+    @Benchmark
+    public Shop localCacheHit() {
+        return cacheClient.queryWithLocalCache(CACHE_SHOP_KEY, HIT_ID, Shop.class, this::loadShop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+
+    //删除缓存后查询：加锁、DoubleCheck、写回、释放锁
+    @Benchmark
+    public Shop mutexMiss() {
+        redis.stringRedisTemplate().delete(CACHE_SHOP_KEY + MISS_ID);
+        return cacheClient.queryWithMutex(CACHE_SHOP_KEY, MISS_ID, Shop.class, this::loadShop, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
+}
@@ -0,0 +1,185 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.alibaba.fastjson.JSON;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.Voucher;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.codec.CacheCodecs;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * hutool json、fastjson、jackson 与二进制编解码器的对比：每次编解码耗时(ns) 和 写入redis的字节数
+ * 运行：mvn -Pbenchmark -DskipTests verify -Djmh.include=CacheCodecBenchmark，字节数在启动时打印
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Benchmark)
+public class CacheCodecBenchmark {
+
+    private CacheCodecs codecs;
+    private ObjectMapper objectMapper;
+    private Shop shop;
+    private String json;
+    private byte[] binary;
+    private String logicalJson;
+    private byte[] logicalBinary;
+
+    @Setup
+    public void setup() {
+        codecs = new CacheCodecs();
+        objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        shop = sampleShop();
+        json = JSONUtil.toJsonStr(shop);
+        binary = codecs.encode(shop);
+        //旧格式：RedisData包一层，过期时间是LocalDateTime
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(LocalDateTime.now().plusHours(1));
+        logicalJson = JSONUtil.toJsonStr(redisData);
+        logicalBinary = codecs.encodeWithExpire(shop, System.currentTimeMillis() + 3600 * 1000L);
+        printSizes();
+    }
+
+    @Benchmark
+    public String jsonEncode() {
+        return JSONUtil.toJsonStr(shop);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return codecs.encode(shop);
+    }
+
+    @Benchmark
+    public Shop jsonDecode() {
+        return JSONUtil.toBean(json, Shop.class);
+    }
+
+    @Benchmark
+    public Shop binaryDecode() {
+        return codecs.decode(binary, Shop.class);
+    }
+
+    @Benchmark
+    public String fastjsonEncode() {
+        return JSON.toJSONString(shop);
+    }
+
+    @Benchmark
+    public Shop fastjsonDecode() {
+        return JSON.parseObject(json, Shop.class);
+    }
+
+    @Benchmark
+    public byte[] jacksonEncode() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(shop);
+    }
+
+    @Benchmark
+    public Shop jacksonDecode() throws JsonProcessingException {
+        return objectMapper.readValue(json, Shop.class);
+    }
+
+    //原来的逻辑过期读取：先解析RedisData，再解析里面的对象
+    @Benchmark
+    public Shop jsonLogicalDecode() {
+        RedisData redisData = JSONUtil.toBean(logicalJson, RedisData.class);
+        return JSONUtil.toBean((JSONObject) redisData.getData(), Shop.class);
+    }
+
+    @Benchmark
+    public Shop binaryLogicalDecode() {
+        return codecs.decodeWithExpire(logicalBinary, Shop.class).getData();
+    }
+
+    static Shop sampleShop() {
+        Shop shop = new Shop();
+        shop.setId(1L)
+                .setName("103茶餐厅")
+                .setTypeId(1L)
+                .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                .setArea("大关")
+                .setAddress("金华路锦昌文华苑29号")
+                .setX(120.149192)
+                .setY(30.316078)
+                .setAvgPrice(80L)
+                .setSold(4215)
+                .setComments(3035)
+                .setScore(37)
+                .setOpenHours("10:00-22:00")
+                .setCreateTime(LocalDateTime.of(2021, 12, 22, 18, 10, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 13, 17, 32, 19));
+        return shop;
+    }
+
+    static UserDTO sampleUser() {
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("user_slxaxy2au9");
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        return user;
+    }
+
+    static Blog sampleBlog() {
+        Blog blog = new Blog();
+        blog.setId(4L)
+                .setShopId(10L)
+                .setUserId(1010L)
+                .setTitle("无尽浪漫的夜晚丨在万花丛中摇晃着红酒杯🍷品战斧牛排🥩")
+                .setImages("/imgs/blogs/7/14/4771fefb-1a87-4252-816c-9f7ec41ffa4a.jpg,/imgs/blogs/4/10/2f07e3c9-ddce-482d-9ea7-c21450f8d7cd.jpg")
+                .setContent("生活就是一半烟火·一半诗意<br/>手执烟火谋生活·心怀诗意以谋爱·<br/>当然<br/>\r\n男朋友给不了的浪漫要学会自己给🍒")
+                .setLiked(3)
+                .setComments(104)
+                .setCreateTime(LocalDateTime.of(2021, 12, 28, 19, 50, 1))
+                .setUpdateTime(LocalDateTime.of(2022, 3, 10, 14, 26, 34));
+        return blog;
+    }
+
+    static Voucher sampleVoucher() {
+        Voucher voucher = new Voucher();
+        voucher.setId(1L)
+                .setShopId(1L)
+                .setTitle("50元代金券")
+                .setSubTitle("周一至周日均可使用")
+                .setRules("全场通用\\n无需预约\\n可无限叠加\\不兑现、不找零\\n仅限堂食")
+                .setPayValue(4750L)
+                .setActualValue(5000L)
+                .setType(0)
+                .setStatus(1)
+                .setStock(100)
+                .setBeginTime(LocalDateTime.of(2022, 1, 26, 10, 9, 17))
+                .setEndTime(LocalDateTime.of(2022, 1, 26, 23, 9, 4))
+                .setCreateTime(LocalDateTime.of(2022, 1, 4, 9, 42, 39))
+                .setUpdateTime(LocalDateTime.of(2022, 1, 4, 9, 43, 31));
+        return voucher;
+    }
+
+    //打印每种实体json和二进制编码后的字节数
+    static void printSizes() {
+        CacheCodecs codecs = new CacheCodecs();
+        Object[] samples = {sampleShop(), sampleUser(), sampleBlog(), sampleVoucher()};
+        for (Object sample : samples) {
+            int jsonSize = JSONUtil.toJsonStr(sample).getBytes(StandardCharsets.UTF_8).length;
+            int binarySize = codecs.encode(sample).length;
+            System.out.printf("%-8s json=%4d bytes, binary=%4d bytes, %.1f%%%n",
+                    sample.getClass().getSimpleName(), jsonSize, binarySize, binarySize * 100.0 / jsonSize);
+        }
+    }
+}
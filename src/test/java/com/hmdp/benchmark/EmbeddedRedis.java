@@ -0,0 +1,69 @@
+package com.hmdp.benchmark;
+
+import com.github.fppt.jedismock.RedisServer;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.protocol.ProtocolVersion;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.io.IOException;
+
+/**
+ * 基准测试用的进程内redis(jedis-mock)，不依赖外部redis，离线也能运行
+ * 通过lettuce走真实的网络协议访问，和线上的调用路径一致
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+public class EmbeddedRedis implements AutoCloseable {
+
+    private final RedisServer server;
+    private final LettuceConnectionFactory connectionFactory;
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisTemplate<String, byte[]> byteRedisTemplate;
+
+    public EmbeddedRedis() throws IOException {
+        server = RedisServer.newRedisServer().start();
+        LettuceClientConfiguration clientConfig = LettuceClientConfiguration.builder()
+                .clientOptions(ClientOptions.builder().protocolVersion(ProtocolVersion.RESP2).build())
+                .build();
+        connectionFactory = new LettuceConnectionFactory(
+                new RedisStandaloneConfiguration(server.getHost(), server.getBindPort()), clientConfig);
+        connectionFactory.afterPropertiesSet();
+
+        stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+        stringRedisTemplate.afterPropertiesSet();
+
+        byteRedisTemplate = new RedisTemplate<>();
+        byteRedisTemplate.setConnectionFactory(connectionFactory);
+        byteRedisTemplate.setKeySerializer(RedisSerializer.string());
+        byteRedisTemplate.setValueSerializer(RedisSerializer.byteArray());
+        byteRedisTemplate.afterPropertiesSet();
+    }
+
+    public StringRedisTemplate stringRedisTemplate() {
+        return stringRedisTemplate;
+    }
+
+    public RedisTemplate<String, byte[]> byteRedisTemplate() {
+        return byteRedisTemplate;
+    }
+
+    //监听容器不启动，只用来满足组件的构造参数
+    public RedisMessageListenerContainer listenerContainer() {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        return container;
+    }
+
+    @Override
+    public void close() throws IOException {
+        connectionFactory.destroy();
+        server.stop();
+    }
+}
@@ -0,0 +1,128 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.FeedDispatcher;
+import com.hmdp.utils.FeedHorizon;
+import com.hmdp.utils.FeedReader;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.FEED_BIGV_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_KEY;
+import static com.hmdp.utils.RedisConstants.FEED_OUTBOX_KEY;
+import static com.hmdp.utils.RedisConstants.FOLLOW_KEY;
+
+/**
+ * 纯推模式和推拉结合模式的对比
+ * 写：大V发一篇笔记，推模式写入每个粉丝的收件箱，推拉结合只写发件箱，写放大在启动时打印
+ * 读：推模式只查收件箱，推拉结合归并收件箱和关注的大V的发件箱
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Benchmark)
+public class FeedBenchmark {
+
+    //大V的粉丝数
+    private static final int FOLLOWERS = 1000;
+    //读取的用户关注的大V数
+    private static final int BIG_AUTHORS = 5;
+    //每个收件箱/发件箱里的笔记数
+    private static final int BLOGS_PER_BOX = 200;
+    private static final int PAGE_SIZE = 10;
+    //收件箱、发件箱的上限
+    private static final int INBOX_CAP = 1000;
+
+    //推拉结合模式下的读者
+    private static final Long HYBRID_USER = 1L;
+    //纯推模式下的读者，收件箱里是同样的笔记
+    private static final Long PUSH_USER = 2L;
+    private static final long FIRST_AUTHOR = 100L;
+
+    private EmbeddedRedis redis;
+    private FeedDispatcher feedDispatcher;
+    private FeedReader feedReader;
+    private List<Long> followerIds;
+    private final AtomicLong blogId = new AtomicLong(1000000);
+    private long max;
+
+    @Setup
+    public void setup() throws IOException {
+        redis = new EmbeddedRedis();
+        StringRedisTemplate stringRedisTemplate = redis.stringRedisTemplate();
+        FeedHorizon feedHorizon = new FeedHorizon(stringRedisTemplate);
+        feedDispatcher = new FeedDispatcher(stringRedisTemplate, null, feedHorizon, 500, FOLLOWERS, INBOX_CAP, "bench", 0, 60000);
+        feedReader = new FeedReader(stringRedisTemplate, feedHorizon);
+        followerIds = new ArrayList<>(FOLLOWERS);
+        for (long i = 0; i < FOLLOWERS; i++) {
+            followerIds.add(10000 + i);
+        }
+        //1.推拉结合：读者关注了几个大V，每个大V的发件箱和读者自己的收件箱里各有一些笔记
+        long time = System.currentTimeMillis();
+        long id = 1;
+        for (long author = FIRST_AUTHOR; author < FIRST_AUTHOR + BIG_AUTHORS; author++) {
+            stringRedisTemplate.opsForSet().add(FOLLOW_KEY + HYBRID_USER, String.valueOf(author));
+            stringRedisTemplate.opsForSet().add(FEED_BIGV_KEY, String.valueOf(author));
+            for (int i = 0; i < BLOGS_PER_BOX; i++) {
+                double score = time - id * 1000;
+                feedDispatcher.pushToOutbox(author, String.valueOf(id), score);
+                stringRedisTemplate.opsForZSet().add(FEED_KEY + PUSH_USER, String.valueOf(id), score);
+                id++;
+            }
+        }
+        for (int i = 0; i < BLOGS_PER_BOX; i++) {
+            double score = time - id * 1000;
+            stringRedisTemplate.opsForZSet().add(FEED_KEY + HYBRID_USER, String.valueOf(id), score);
+            stringRedisTemplate.opsForZSet().add(FEED_KEY + PUSH_USER, String.valueOf(id), score);
+            id++;
+        }
+        max = time;
+        printWriteAmplification();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        redis.close();
+    }
+
+    //纯推：大V发一篇笔记，管道写入所有粉丝的收件箱
+    @Benchmark
+    public void pushWrite() {
+        feedDispatcher.pushToInboxes(followerIds, String.valueOf(blogId.incrementAndGet()), System.currentTimeMillis());
+    }
+
+    //推拉结合：大V发一篇笔记，只写自己的发件箱
+    @Benchmark
+    public void hybridWrite() {
+        feedDispatcher.pushToOutbox(FIRST_AUTHOR, String.valueOf(blogId.incrementAndGet()), System.currentTimeMillis());
+    }
+
+    //纯推：只查收件箱
+    @Benchmark
+    public List<ZSetOperations.TypedTuple<String>> pushRead() {
+        return feedReader.queryFeed(PUSH_USER, max, 0, PAGE_SIZE);
+    }
+
+    //推拉结合：收件箱和大V的发件箱归并
+    @Benchmark
+    public List<ZSetOperations.TypedTuple<String>> hybridRead() {
+        return feedReader.queryFeed(HYBRID_USER, max, 0, PAGE_SIZE);
+    }
+
+    //每篇笔记写入redis的命令数和收件箱里多出来的条数
+    private static void printWriteAmplification() {
+        System.out.printf("push   : %d ZADD+ZREMRANGEBYRANK per blog, %d inbox entries per blog%n", FOLLOWERS, FOLLOWERS);
+        System.out.printf("hybrid : 1 ZADD+ZREMRANGEBYRANK per blog, 0 inbox entries per blog, reads merge %d outboxes%n", BIG_AUTHORS);
+    }
+}
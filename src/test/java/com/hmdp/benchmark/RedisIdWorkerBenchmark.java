@@ -0,0 +1,60 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.utils.RedisIdWorker;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 全局id生成的耗时，单线程和多线程，每次INCR和号段两种模式
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Benchmark)
+public class RedisIdWorkerBenchmark {
+
+    private EmbeddedRedis redis;
+    private RedisIdWorker redisIdWorker;
+    private RedisIdWorker segmentIdWorker;
+
+    @Setup
+    public void setup() throws IOException {
+        redis = new EmbeddedRedis();
+        redisIdWorker = new RedisIdWorker(redis.stringRedisTemplate());
+        segmentIdWorker = new RedisIdWorker(redis.stringRedisTemplate(), 1000);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        redis.close();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return redisIdWorker.nextId("order");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long nextIdConcurrent() {
+        return redisIdWorker.nextId("order");
+    }
+
+    @Benchmark
+    public long nextIdSegment() {
+        return segmentIdWorker.nextId("order");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long nextIdSegmentConcurrent() {
+        return segmentIdWorker.nextId("order");
+    }
+}
@@ -0,0 +1,107 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SignedTokens;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.LOGIN_USER_KEY;
+
+/**
+ * 每个请求都会经过的token刷新拦截器：查询登录用户并刷新有效期
+ * loggedIn 命中本地登录缓存，loggedInUncached 每次都查redis，loggedInSigned 本地校验签名token
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Benchmark)
+public class RefreshTokenInterceptorBenchmark {
+
+    private static final String TOKEN = "2c4ad3a0e4b34f2d8a7b1c0d9e8f7a6b";
+
+    private EmbeddedRedis redis;
+    private RefreshTokenInterceptor interceptor;
+    private RefreshTokenInterceptor uncachedInterceptor;
+    private RefreshTokenInterceptor signedInterceptor;
+    private MockHttpServletRequest signedRequest;
+    private MockHttpServletRequest loginRequest;
+    private MockHttpServletRequest anonymousRequest;
+    private MockHttpServletResponse response;
+
+    @Setup
+    public void setup() throws IOException {
+        redis = new EmbeddedRedis();
+        Map<String, String> userMap = new HashMap<>();
+        userMap.put("id", "1010");
+        userMap.put("nickName", "user_slxaxy2au9");
+        userMap.put("icon", "/imgs/icons/kkjtbcr.jpg");
+        redis.stringRedisTemplate().opsForHash().putAll(LOGIN_USER_KEY + TOKEN, userMap);
+        SignedTokens sessionMode = new SignedTokens(
+                redis.stringRedisTemplate(), redis.listenerContainer(), SignedTokens.MODE_SESSION, "");
+        interceptor = new RefreshTokenInterceptor(new LoginSessionCache(
+                redis.stringRedisTemplate(), redis.listenerContainer(), 300000, 60000), sessionMode);
+        //本地缓存1毫秒就过期，相当于每次都查redis并刷新有效期
+        uncachedInterceptor = new RefreshTokenInterceptor(new LoginSessionCache(
+                redis.stringRedisTemplate(), redis.listenerContainer(), 1, 0), sessionMode);
+        //签名token
+        SignedTokens signedTokens = new SignedTokens(
+                redis.stringRedisTemplate(), redis.listenerContainer(), SignedTokens.MODE_SIGNED, "benchmark-secret");
+        signedInterceptor = new RefreshTokenInterceptor(null, signedTokens);
+        UserDTO user = new UserDTO();
+        user.setId(1010L);
+        user.setNickName("user_slxaxy2au9");
+        user.setIcon("/imgs/icons/kkjtbcr.jpg");
+        signedRequest = new MockHttpServletRequest();
+        signedRequest.addHeader("authorization", signedTokens.issue(user));
+        loginRequest = new MockHttpServletRequest();
+        loginRequest.addHeader("authorization", TOKEN);
+        anonymousRequest = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        redis.close();
+    }
+
+    @Benchmark
+    public boolean loggedIn() throws Exception {
+        boolean pass = interceptor.preHandle(loginRequest, response, null);
+        interceptor.afterCompletion(loginRequest, response, null, null);
+        return pass;
+    }
+
+    @Benchmark
+    public boolean loggedInUncached() throws Exception {
+        boolean pass = uncachedInterceptor.preHandle(loginRequest, response, null);
+        uncachedInterceptor.afterCompletion(loginRequest, response, null, null);
+        return pass;
+    }
+
+    @Benchmark
+    public boolean loggedInSigned() throws Exception {
+        boolean pass = signedInterceptor.preHandle(signedRequest, response, null);
+        signedInterceptor.afterCompletion(signedRequest, response, null, null);
+        return pass;
+    }
+
+    @Benchmark
+    public boolean anonymous() throws Exception {
+        boolean pass = interceptor.preHandle(anonymousRequest, response, null);
+        interceptor.afterCompletion(anonymousRequest, response, null, null);
+        return pass;
+    }
+}
@@ -0,0 +1,101 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.dto.Result;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.service.impl.VoucherOrderServiceImpl;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillStock;
+import com.hmdp.utils.UserHolder;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_ORDER_KEY;
+
+/**
+ * 秒杀下单：Seckill.lua校验库存和一人一单，写入stream.orders；分片模式按用户路由到分片
+ * 不启动订单消费者，只测量请求线程上的耗时
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+@State(Scope.Benchmark)
+public class SeckillBenchmark {
+
+    private static final Long VOUCHER_ID = 1L;
+    private static final Long SOLD_OUT_VOUCHER_ID = 2L;
+    private static final Long SHARDED_VOUCHER_ID = 3L;
+    private static final int SHARDS = 8;
+
+    private EmbeddedRedis redis;
+    private VoucherOrderServiceImpl voucherOrderService;
+    private SeckillStock seckillStock;
+    private final AtomicLong userId = new AtomicLong();
+
+    @Setup
+    public void setup() throws IOException {
+        redis = new EmbeddedRedis();
+        StringRedisTemplate stringRedisTemplate = redis.stringRedisTemplate();
+        seckillStock = new SeckillStock(stringRedisTemplate, new RedisIdWorker(stringRedisTemplate), 1);
+        voucherOrderService = new VoucherOrderServiceImpl();
+        ReflectionTestUtils.setField(voucherOrderService, "seckillStock", seckillStock);
+        ReflectionTestUtils.setField(voucherOrderService, "stringRedisTemplate", stringRedisTemplate);
+    }
+
+    //每轮重新设置库存，清空已下单用户和订单消息
+    @Setup(Level.Iteration)
+    public void resetStock() {
+        StringRedisTemplate stringRedisTemplate = redis.stringRedisTemplate();
+        stringRedisTemplate.delete("stream.orders");
+        stringRedisTemplate.delete(SECKILL_ORDER_KEY + VOUCHER_ID);
+        seckillStock.init(VOUCHER_ID, Integer.MAX_VALUE);
+        seckillStock.init(SOLD_OUT_VOUCHER_ID, 0);
+        for (int i = 0; i < SHARDS; i++) {
+            stringRedisTemplate.delete(SeckillStock.orderKey(SHARDED_VOUCHER_ID, i));
+        }
+        seckillStock.init(SHARDED_VOUCHER_ID, Integer.MAX_VALUE, SHARDS);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        redis.close();
+    }
+
+    //每次都是新用户，走完整的下单流程
+    @Benchmark
+    public Result seckill() {
+        return seckillAs(VOUCHER_ID);
+    }
+
+    //库存已经为0，第一次之后走本地卖完标记
+    @Benchmark
+    public Result seckillSoldOut() {
+        return seckillAs(SOLD_OUT_VOUCHER_ID);
+    }
+
+    //库存分成8片，用户按id路由到分片
+    @Benchmark
+    public Result seckillSharded() {
+        return seckillAs(SHARDED_VOUCHER_ID);
+    }
+
+    private Result seckillAs(Long voucherId) {
+        UserDTO user = new UserDTO();
+        user.setId(userId.incrementAndGet());
+        UserHolder.saveUser(user);
+        try {
+            return voucherOrderService.seckillVoucher(voucherId);
+        } finally {
+            UserHolder.removeUser();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.hmdp.benchmark;
+
+import com.hmdp.entity.Shop;
+import com.hmdp.utils.NearbyShopCache;
+import com.hmdp.utils.ShopGeoIndex;
+import io.lettuce.core.ClientOptions;
+import io.lettuce.core.protocol.ProtocolVersion;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.geo.Distance;
+import org.springframework.data.geo.GeoResults;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceClientConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.domain.geo.GeoReference;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_KEY;
+
+/**
+ * 附近商铺查询：进程内坐标索引 vs redis GEOSEARCH，半径5km、按距离排序
+ * jedis-mock不支持GEO命令，geoSearch需要真实的redis：-Dbenchmark.redis=host:port，默认localhost:6379
+ * 没有redis时只运行索引：-Djmh.include=ShopGeoIndexBenchmark.indexSearch
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class ShopGeoIndexBenchmark {
+
+    private static final long TYPE_ID = 1L;
+    //商铺数量，分布在杭州市区附近
+    private static final int SHOPS = 20000;
+    private static final double MIN_X = 120.0;
+    private static final double MIN_Y = 30.1;
+    private static final double SPAN_X = 0.5;
+    private static final double SPAN_Y = 0.4;
+    private static final double RADIUS = 5000;
+    //预先生成的查询坐标
+    private static final int POINTS = 1024;
+
+    static List<Shop> sampleShops() {
+        Random random = new Random(42);
+        List<Shop> shops = new ArrayList<>(SHOPS);
+        for (long id = 1; id <= SHOPS; id++) {
+            Shop shop = new Shop();
+            shop.setId(id)
+                    .setTypeId(TYPE_ID)
+                    .setX(MIN_X + random.nextDouble() * SPAN_X)
+                    .setY(MIN_Y + random.nextDouble() * SPAN_Y);
+            shops.add(shop);
+        }
+        return shops;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Points {
+        final double[] xs = new double[POINTS];
+        final double[] ys = new double[POINTS];
+        int next;
+
+        @Setup
+        public void setup() {
+            Random random = new Random(7);
+            for (int i = 0; i < POINTS; i++) {
+                xs[i] = MIN_X + random.nextDouble() * SPAN_X;
+                ys[i] = MIN_Y + random.nextDouble() * SPAN_Y;
+            }
+        }
+
+        int next() {
+            return next++ & (POINTS - 1);
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class IndexState {
+        ShopGeoIndex index;
+
+        @Setup
+        public void setup() {
+            index = new ShopGeoIndex(null, null, new RedisMessageListenerContainer(), true, 0.01);
+            index.replaceAll(sampleShops());
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RedisState {
+        LettuceConnectionFactory connectionFactory;
+        StringRedisTemplate stringRedisTemplate;
+
+        @Setup
+        public void setup() {
+            String[] address = System.getProperty("benchmark.redis", "localhost:6379").split(":");
+            LettuceClientConfiguration clientConfig = LettuceClientConfiguration.builder()
+                    .clientOptions(ClientOptions.builder().protocolVersion(ProtocolVersion.RESP2).build())
+                    .build();
+            connectionFactory = new LettuceConnectionFactory(
+                    new RedisStandaloneConfiguration(address[0], Integer.parseInt(address[1])), clientConfig);
+            connectionFactory.afterPropertiesSet();
+            stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+            stringRedisTemplate.afterPropertiesSet();
+            //写入同样的商铺 GEOADD
+            String key = SHOP_GEO_KEY + "bench:" + TYPE_ID;
+            stringRedisTemplate.delete(key);
+            List<RedisGeoCommands.GeoLocation<String>> locations = new ArrayList<>(SHOPS);
+            for (Shop shop : sampleShops()) {
+                locations.add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+            }
+            stringRedisTemplate.opsForGeo().add(key, locations);
+        }
+
+        @TearDown
+        public void tearDown() {
+            stringRedisTemplate.delete(SHOP_GEO_KEY + "bench:" + TYPE_ID);
+            connectionFactory.destroy();
+        }
+    }
+
+    //进程内索引：网格过滤 + 球面距离 + 排序
+    @Benchmark
+    public List<NearbyShopCache.ShopDistance> indexSearch(IndexState state, Points points) {
+        int i = points.next();
+        return state.index.search(TYPE_ID, points.xs[i], points.ys[i], RADIUS);
+    }
+
+    //GEOSEARCH key FROMLONLAT x y BYRADIUS 5000 m ASC WITHDIST
+    @Benchmark
+    public GeoResults<RedisGeoCommands.GeoLocation<String>> geoSearch(RedisState state, Points points) {
+        int i = points.next();
+        return state.stringRedisTemplate.opsForGeo().search(
+                SHOP_GEO_KEY + "bench:" + TYPE_ID,
+                GeoReference.fromCoordinate(points.xs[i], points.ys[i]),
+                new Distance(RADIUS),
+                RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().sortAscending()
+        );
+    }
+}
@@ -0,0 +1,175 @@
+package com.hmdp.utils.codec;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.entity.Blog;
+import com.hmdp.entity.Follow;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.User;
+import com.hmdp.entity.Voucher;
+import com.hmdp.utils.RedisData;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 缓存编解码器：注册的类型二进制往返，没注册的类型走json，旧的json数据和RedisData格式都能读出来
+ * 不依赖spring、mysql、redis
+ *
+ * 作者:灰爪哇
+ * 时间:2026-10-18
+ */
+class CacheCodecsTest {
+
+    private static final LocalDateTime TIME = LocalDateTime.of(2026, 10, 18, 12, 30, 15);
+
+    private final CacheCodecs codecs = new CacheCodecs();
+
+    @Test
+    void shopRoundTrip() {
+        assertRoundTrip(shop(), Shop.class);
+    }
+
+    @Test
+    void userRoundTrip() {
+        User user = new User();
+        user.setId(2L);
+        user.setPhone("13812345678");
+        user.setPassword("");
+        user.setNickName("user_abc");
+        user.setIcon("/imgs/icons/a.jpg");
+        user.setCreateTime(TIME);
+        user.setUpdateTime(TIME);
+        assertRoundTrip(user, User.class);
+    }
+
+    @Test
+    void userDTORoundTrip() {
+        UserDTO user = new UserDTO();
+        user.setId(3L);
+        user.setNickName("小鱼同学");
+        user.setIcon(null);
+        assertRoundTrip(user, UserDTO.class);
+    }
+
+    @Test
+    void blogRoundTrip() {
+        Blog blog = new Blog();
+        blog.setId(4L);
+        blog.setShopId(1L);
+        blog.setUserId(2L);
+        blog.setTitle("无尽浪漫的夜晚");
+        blog.setImages("/imgs/blogs/1.jpg,/imgs/blogs/2.jpg");
+        blog.setContent("生活就是一半烟火，一半诗意");
+        blog.setLiked(10);
+        blog.setComments(0);
+        blog.setCreateTime(TIME);
+        blog.setUpdateTime(TIME);
+        assertRoundTrip(blog, Blog.class);
+    }
+
+    @Test
+    void voucherRoundTrip() {
+        Voucher voucher = new Voucher();
+        voucher.setId(5L);
+        voucher.setShopId(1L);
+        voucher.setTitle("100元代金券");
+        voucher.setSubTitle("周一至周五均可使用");
+        voucher.setRules("全场通用，无需预约");
+        voucher.setPayValue(8000L);
+        voucher.setActualValue(10000L);
+        voucher.setType(1);
+        voucher.setStatus(1);
+        voucher.setStock(100);
+        voucher.setBeginTime(TIME);
+        voucher.setEndTime(TIME.plusDays(1));
+        voucher.setCreateTime(TIME);
+        voucher.setUpdateTime(TIME);
+        assertRoundTrip(voucher, Voucher.class);
+    }
+
+    @Test
+    void unregisteredTypeUsesJson() {
+        Follow follow = new Follow();
+        follow.setId(6L);
+        follow.setUserId(2L);
+        follow.setFollowUserId(3L);
+        byte[] bytes = codecs.encode(follow);
+        assertEquals('{', bytes[0]);
+        Follow decoded = codecs.decode(bytes, Follow.class);
+        assertEquals(follow.getUserId(), decoded.getUserId());
+        assertEquals(follow.getFollowUserId(), decoded.getFollowUserId());
+    }
+
+    @Test
+    void legacyJsonOfRegisteredType() {
+        Shop shop = shop();
+        byte[] bytes = JSONUtil.toJsonStr(shop).getBytes(StandardCharsets.UTF_8);
+        Shop decoded = codecs.decode(bytes, Shop.class);
+        assertEquals(shop.getName(), decoded.getName());
+        assertEquals(shop.getX(), decoded.getX());
+        assertEquals(shop.getAvgPrice(), decoded.getAvgPrice());
+    }
+
+    @Test
+    void legacyRedisData() {
+        Shop shop = shop();
+        RedisData redisData = new RedisData();
+        redisData.setData(shop);
+        redisData.setExpireTime(TIME);
+        byte[] bytes = JSONUtil.toJsonStr(redisData).getBytes(StandardCharsets.UTF_8);
+        CacheCodecs.Expiring<Shop> expiring = codecs.decodeWithExpire(bytes, Shop.class);
+        assertEquals(TIME.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), expiring.getExpireMillis());
+        assertEquals(shop.getId(), expiring.getData().getId());
+        assertEquals(shop.getName(), expiring.getData().getName());
+        assertTrue(expiring.isExpired());
+    }
+
+    @Test
+    void expireHeaderRoundTrip() {
+        long expireMillis = System.currentTimeMillis() + 60000;
+        Shop shop = shop();
+        CacheCodecs.Expiring<Shop> expiring =
+                codecs.decodeWithExpire(codecs.encodeWithExpire(shop, expireMillis), Shop.class);
+        assertEquals(expireMillis, expiring.getExpireMillis());
+        assertEquals(shop, expiring.getData());
+        assertFalse(expiring.isExpired());
+        //空值只有过期时间头
+        CacheCodecs.Expiring<Shop> empty =
+                codecs.decodeWithExpire(codecs.encodeWithExpire(null, expireMillis), Shop.class);
+        assertNull(empty.getData());
+    }
+
+    private <T> void assertRoundTrip(T value, Class<T> type) {
+        byte[] bytes = codecs.encode(value);
+        assertTrue(BinaryCacheCodec.isBinary(bytes));
+        assertEquals(value, codecs.decode(bytes, type));
+    }
+
+    private static Shop shop() {
+        Shop shop = new Shop();
+        shop.setId(1L);
+        shop.setName("103茶餐厅");
+        shop.setTypeId(1L);
+        shop.setImages("https://qcloud.dpfile.com/pc/1.jpg");
+        shop.setArea("大关");
+        shop.setAddress("金华路锦昌文华苑29号");
+        shop.setX(120.149192);
+        shop.setY(30.316078);
+        shop.setAvgPrice(80L);
+        shop.setSold(4215);
+        shop.setComments(3035);
+        shop.setScore(37);
+        shop.setOpenHours("10:00-22:00");
+        shop.setCreateTime(TIME);
+        shop.setUpdateTime(TIME);
+        return shop;
+    }
+}